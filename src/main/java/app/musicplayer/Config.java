@@ -9,6 +9,7 @@ package app.musicplayer;
 
 import com.almasb.fxgl.core.collection.PropertyMap;
 import javafx.scene.input.DataFormat;
+import javafx.scene.input.KeyCombination;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -26,19 +27,106 @@ public final class Config {
     public static final int MAX_PLAYLIST_TITLE_LENGTH = 18;
 
     public static final Path LIBRARY_FILE = Paths.get("library.json");
+    /**
+     * Size and last modified time of each imported file, used to skip unchanged files on rescan.
+     * Only meaningful together with [LIBRARY_FILE].
+     */
+    public static final Path FINGERPRINTS_FILE = Paths.get("fingerprints.json");
     public static final Path PREFERENCES_FILE = Paths.get("prefs.json");
 
+    /**
+     * Play stats and playlist edits made since [LIBRARY_FILE] was last written.
+     */
+    public static final Path JOURNAL_FILE = Paths.get("library.journal");
+
+    /**
+     * Number of journal records after which the journal is folded into [LIBRARY_FILE] in the background.
+     */
+    public static final int JOURNAL_COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * Used instead of [LIBRARY_FILE] if the "libraryStore" preference is "database".
+     */
+    public static final Path LIBRARY_DATABASE_FILE = Paths.get("library.mv.db");
+
+    /**
+     * On startup, the library is shown as soon as this many songs are read, the rest are added in the background.
+     */
+    public static final int LIBRARY_FIRST_PAGE_SIZE = 200;
+
+    /**
+     * Artwork is decoded to fit a square of this size.
+     */
+    public static final int ARTWORK_SIZE = 300;
+
+    /**
+     * Thumbnails of artwork at [ARTWORK_SIZE], see ThumbnailCache.
+     */
+    public static final Path ARTWORK_CACHE_DIR = Paths.get("artwork-cache");
+
     public static final DataFormat DRAG_SONG_LIST = new DataFormat("application/javafx-song-list");
 
     public static final String VAR_DRAGGED_SONGS = "application/javafx-song-list";
 
     public static final List<String> SUPPORTED_FILE_EXTENSIONS = List.of("mp3", "mp4", "m4a", "m4v", "wav");
 
+    /**
+     * Default number of worker threads used to read tags when importing songs.
+     * Can be overridden via the "importConcurrency" preference.
+     */
+    public static final int DEFAULT_IMPORT_CONCURRENCY = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Songs found during import are published to the UI in batches of at most this size,
+     * or every [IMPORT_BATCH_INTERVAL_MILLIS], whichever comes first.
+     */
+    public static final int IMPORT_BATCH_SIZE = 1000;
+    public static final long IMPORT_BATCH_INTERVAL_MILLIS = 200;
+
+    /**
+     * File system changes in watched library folders are processed once no new changes
+     * have been reported for this long.
+     */
+    public static final long WATCH_DEBOUNCE_MILLIS = 1500;
+
+    /**
+     * With gapless playback, the next song is prepared when the current one has this long left.
+     */
+    public static final double GAPLESS_PRELOAD_SECONDS = 5.0;
+
+    /**
+     * Stopped or warmed up media players kept for reuse, each holds native decoding resources.
+     */
+    public static final int MAX_IDLE_MEDIA_PLAYERS = 2;
+
+    /**
+     * Playback start latencies are reported over this many most recent starts
+     * and written to [PLAYBACK_LATENCY_FILE] on exit.
+     */
+    public static final int PLAYBACK_LATENCY_WINDOW = 1000;
+    public static final Path PLAYBACK_LATENCY_FILE = Paths.get("playback-latency.json");
+
+    /**
+     * Logs the playback start latency percentiles and media player stats at any time.
+     */
+    public static final KeyCombination PLAYBACK_STATS_SHORTCUT = KeyCombination.keyCombination("Shortcut+Shift+L");
+
     public static final PropertyMap PREFERENCES = new PropertyMap();
 
     public static final String FXML = "/assets/ui/";
 
     static {
         PREFERENCES.setValue("volume", 50.0);
+        PREFERENCES.setValue("importConcurrency", DEFAULT_IMPORT_CONCURRENCY);
+        PREFERENCES.setValue("duplicateContentCheck", true);
+        PREFERENCES.setValue("watchLibraryFolders", true);
+        PREFERENCES.setValue("prettyLibraryFile", false);
+        PREFERENCES.setValue("gaplessPlayback", true);
+
+        // "json" or "database"
+        PREFERENCES.setValue("libraryStore", "json");
+
+        // a 300x300 artwork image takes up about 0.35 MB
+        PREFERENCES.setValue("artworkCacheMegabytes", 64);
     }
 }
\ No newline at end of file
@@ -32,10 +32,8 @@ import static app.musicplayer.Config.*;
 // TODO: update to high res app icon
 // TODO: consider free streaming music API online
 // TODO: remove songs from library
-// TODO: if song is removed from folder
 // TODO: global controls e.g. spacebar to pause/resume
 // TODO: allow playlist song reorder
-// TODO: loop 1, loop all
 // TODO: delete playlist while song is playing
 // TODO: shuffle only works on the playlist currently playing, not on selected
 public class FXGLMusicApp extends Application {
@@ -101,6 +99,7 @@ public class FXGLMusicApp extends Application {
 
         Scene scene = new Scene(view);
         scene.getStylesheets().add(FXGL.getAssetLoader().loadCSS("Global.css").getExternalForm());
+        scene.getAccelerators().put(PLAYBACK_STATS_SHORTCUT, controller::logPlaybackStats);
         stage.setScene(scene);
         stage.show();
 
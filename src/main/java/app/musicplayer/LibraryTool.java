@@ -0,0 +1,426 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer;
+
+import app.musicplayer.library.DatabaseLibraryStore;
+import app.musicplayer.library.FingerprintIndex;
+import app.musicplayer.library.ImportEngine;
+import app.musicplayer.library.LibraryJournal;
+import app.musicplayer.library.RescanResult;
+import app.musicplayer.library.Rescanner;
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.BinaryLibraryFormat;
+import app.musicplayer.model.serializable.SerializableLibrary;
+import app.musicplayer.model.serializable.SerializablePlaylist;
+import app.musicplayer.model.serializable.SerializableSong;
+import app.musicplayer.model.serializable.Serializer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.LogManager;
+import java.util.stream.Collectors;
+
+import static app.musicplayer.Config.*;
+
+/**
+ * Headless entry point for library maintenance, e.g. on a server or in scheduled jobs.
+ * Uses the same import engine and serialization as the UI, but does not start JavaFX.
+ *
+ * <pre>
+ * Usage: LibraryTool [options] command [args]
+ *
+ * Commands:
+ *   import dir...   import (incrementally) the given directories
+ *   rescan          incrementally rescan all previously imported directories
+ *   validate        check library consistency, exits with 1 if problems are found
+ *   stats           print library statistics
+ *   convert in out  convert a library file between JSON, binary and database format
+ *
+ * Options:
+ *   --library file       library file (default: library.json)
+ *   --fingerprints file  fingerprints file (default: fingerprints.json)
+ *   --journal file       journal file (default: library.journal)
+ *   --threads n          number of tag reader threads (default: number of cores)
+ *   --no-content-hash    do not compute content hashes for duplicate detection
+ * </pre>
+ *
+ * Library files are read in either format, detected by content.
+ * They are written in binary format if the file name ends with .bin,
+ * to an embedded database if it ends with .mv.db, otherwise as JSON.
+ * The journal only applies to JSON and binary library files.
+ */
+public final class LibraryTool {
+
+    private Path libraryFile = LIBRARY_FILE;
+    private Path fingerprintsFile = FINGERPRINTS_FILE;
+    private Path journalFile = JOURNAL_FILE;
+    private int numThreads = DEFAULT_IMPORT_CONCURRENCY;
+    private boolean isContentHashEnabled = true;
+
+    public static void main(String[] args) {
+        // disable java.util.logging.Logger from jaudiotagger lib
+        LogManager.getLogManager().reset();
+
+        int exitCode;
+
+        try {
+            exitCode = new LibraryTool().run(args);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            exitCode = 2;
+        }
+
+        System.exit(exitCode);
+    }
+
+    private int run(String[] args) throws Exception {
+        List<String> positional = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--library" -> libraryFile = Paths.get(args[++i]);
+                case "--fingerprints" -> fingerprintsFile = Paths.get(args[++i]);
+                case "--journal" -> journalFile = Paths.get(args[++i]);
+                case "--threads" -> numThreads = Integer.parseInt(args[++i]);
+                case "--no-content-hash" -> isContentHashEnabled = false;
+                default -> positional.add(args[i]);
+            }
+        }
+
+        if (positional.isEmpty()) {
+            printUsage();
+            return 1;
+        }
+
+        var command = positional.get(0);
+        var commandArgs = positional.subList(1, positional.size());
+
+        return switch (command) {
+            case "import" -> {
+                if (commandArgs.isEmpty()) {
+                    printUsage();
+                    yield 1;
+                }
+
+                yield importDirectories(commandArgs.stream().map(Paths::get).toList());
+            }
+            case "rescan" -> importDirectories(List.of());
+            case "validate" -> validate();
+            case "stats" -> stats();
+            case "convert" -> {
+                if (commandArgs.size() != 2) {
+                    printUsage();
+                    yield 1;
+                }
+
+                yield convert(Paths.get(commandArgs.get(0)), Paths.get(commandArgs.get(1)));
+            }
+            default -> {
+                printUsage();
+                yield 1;
+            }
+        };
+    }
+
+    /**
+     * Rescans [directories], or all previously imported roots if none are given, then saves the library.
+     */
+    private int importDirectories(List<Path> directories) throws Exception {
+        long loadStart = System.nanoTime();
+
+        var library = loadLibrary();
+        var fingerprints = loadFingerprints();
+
+        System.out.printf("Loaded library: %d songs in %.2f s%n", library.getSongs().size(), secondsSince(loadStart));
+
+        List<Path> roots = directories.isEmpty()
+                ? fingerprints.getRoots()
+                : directories.stream().map(dir -> dir.toAbsolutePath().normalize()).toList();
+
+        if (roots.isEmpty()) {
+            System.out.println("Nothing to scan: no directories given and none imported before");
+            return 1;
+        }
+
+        var rescanner = new Rescanner(new ImportEngine(numThreads, isContentHashEnabled), fingerprints);
+
+        int numScanned = 0;
+        int numParsed = 0;
+        long parseNanos = 0;
+        long scanStart = System.nanoTime();
+
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                System.out.println("Skipping missing directory: " + root);
+                continue;
+            }
+
+            var numFailed = new AtomicInteger(0);
+            long[] parseStart = { 0 };
+
+            long rootStart = System.nanoTime();
+
+            RescanResult result = rescanner.rescan(root, library::allocateSongId, new ImportEngine.ImportListener() {
+                @Override
+                public void onProgress(Path file, int numProcessed, int numFiles) {
+                    if (numProcessed == 1) {
+                        parseStart[0] = System.nanoTime();
+                    }
+
+                    if (numProcessed % 1000 == 0 || numProcessed == numFiles) {
+                        System.out.printf("\r  %d / %d", numProcessed, numFiles);
+                    }
+
+                    if (numProcessed == numFiles) {
+                        System.out.println();
+                    }
+                }
+
+                @Override
+                public void onFailed(Path file, Exception error) {
+                    numFailed.incrementAndGet();
+                }
+            });
+
+            if (parseStart[0] != 0) {
+                parseNanos += System.nanoTime() - parseStart[0];
+            }
+
+            int numRootParsed = result.addedSongs().size() + result.changedSongs().size() + numFailed.get();
+            int numRootScanned = numRootParsed + result.numUnchanged();
+
+            numParsed += numRootParsed;
+            numScanned += numRootScanned;
+
+            result.applyTo(library, result.findMissingFiles(library));
+
+            System.out.printf("%s: %s, failed: %d (%.2f s)%n", root, result, numFailed.get(), secondsSince(rootStart));
+        }
+
+        double scanSeconds = secondsSince(scanStart);
+
+        System.out.printf("Scanned %d files in %.2f s (%.0f files/s)%n", numScanned, scanSeconds, numScanned / scanSeconds);
+
+        if (numParsed > 0) {
+            double parseSeconds = parseNanos / 1_000_000_000.0;
+            System.out.printf("Read tags of %d files in %.2f s (%.0f files/s, %d threads)%n", numParsed, parseSeconds, numParsed / parseSeconds, numThreads);
+        }
+
+        long saveStart = System.nanoTime();
+
+        writeLibrary(library, libraryFile);
+        Serializer.writeToFile(fingerprints, fingerprintsFile);
+
+        System.out.printf("Saved library: %d songs in %.2f s%n", library.getSongs().size(), secondsSince(saveStart));
+
+        return 0;
+    }
+
+    private int validate() throws Exception {
+        if (!Files.exists(libraryFile)) {
+            System.out.println("Library file does not exist: " + libraryFile);
+            return 1;
+        }
+
+        SerializableLibrary library = DatabaseLibraryStore.isDatabaseFile(libraryFile) || BinaryLibraryFormat.isBinaryLibraryFile(libraryFile)
+                ? Serializer.toSerializable(readLibrary(libraryFile))
+                : Serializer.readLibraryFromFile(libraryFile);
+
+        List<String> problems = new ArrayList<>();
+
+        Set<Integer> ids = new HashSet<>();
+        Set<String> filePaths = new HashSet<>();
+        int maxId = -1;
+
+        for (SerializableSong song : library.songs()) {
+            maxId = Math.max(maxId, song.id());
+
+            if (!ids.add(song.id()))
+                problems.add("Duplicate song id " + song.id() + ": " + song.filePath());
+
+            if (!filePaths.add(Paths.get(song.filePath()).toAbsolutePath().normalize().toString()))
+                problems.add("Duplicate song file: " + song.filePath());
+
+            if (!Files.exists(Paths.get(song.filePath())))
+                problems.add("Missing file: " + song.filePath());
+        }
+
+        if (library.nextSongId() <= maxId)
+            problems.add("Next song id " + library.nextSongId() + " is not above max song id " + maxId);
+
+        for (SerializablePlaylist playlist : library.playlists()) {
+            var unknownIds = playlist.songIDs()
+                    .stream()
+                    .filter(id -> !ids.contains(id))
+                    .toList();
+
+            if (!unknownIds.isEmpty())
+                problems.add("Playlist '" + playlist.title() + "' references " + unknownIds.size() + " unknown song ids");
+        }
+
+        for (Playlist.PlaylistType type : List.of(Playlist.PlaylistType.ALL_SONGS, Playlist.PlaylistType.MOST_PLAYED, Playlist.PlaylistType.RECENTLY_PLAYED)) {
+            if (library.playlists().stream().noneMatch(p -> p.type() == type))
+                problems.add("Missing built-in playlist: " + type);
+        }
+
+        problems.forEach(System.out::println);
+
+        System.out.printf("Checked %d songs and %d playlists: %d problems%n", library.songs().size(), library.playlists().size(), problems.size());
+
+        return problems.isEmpty() ? 0 : 1;
+    }
+
+    private int stats() throws Exception {
+        long loadStart = System.nanoTime();
+
+        var library = loadLibrary();
+
+        double loadSeconds = secondsSince(loadStart);
+
+        var songs = library.getSongs();
+
+        long totalSeconds = songs.stream().mapToLong(Song::getLengthInSeconds).sum();
+        long totalPlays = songs.stream().mapToLong(Song::getPlayCount).sum();
+        long numPlayed = songs.stream().filter(song -> song.getPlayCount() > 0).count();
+
+        Map<String, Long> countByExtension = songs.stream()
+                .collect(Collectors.groupingBy(
+                        song -> {
+                            var name = song.getFile().getFileName().toString();
+                            return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+                        },
+                        TreeMap::new,
+                        Collectors.counting()
+                ));
+
+        System.out.printf("Library: %s (loaded in %.2f s)%n", libraryFile.toAbsolutePath(), loadSeconds);
+        System.out.printf("Songs: %d%n", songs.size());
+        System.out.printf("Total length: %dh %02dm%n", totalSeconds / 3600, totalSeconds % 3600 / 60);
+        System.out.printf("Plays: %d (%d songs played at least once)%n", totalPlays, numPlayed);
+        System.out.printf("Files by type: %s%n", countByExtension);
+        System.out.printf("Playlists: %d%n", library.getPlaylists().size());
+
+        library.getPlaylists()
+                .stream()
+                .sorted()
+                .forEach(p -> System.out.printf("  %s (%d songs)%n", p.getTitle(), p.getSongs().size()));
+
+        if (Files.exists(fingerprintsFile)) {
+            var fingerprints = loadFingerprints();
+
+            System.out.printf("Imported directories: %s%n", fingerprints.getRoots());
+            System.out.printf("Fingerprinted files: %d%n", fingerprints.size());
+        }
+
+        return 0;
+    }
+
+    private int convert(Path inputFile, Path outputFile) throws Exception {
+        if (!Files.exists(inputFile)) {
+            System.out.println("Library file does not exist: " + inputFile);
+            return 1;
+        }
+
+        long loadStart = System.nanoTime();
+
+        var library = readLibrary(inputFile);
+
+        System.out.printf("Loaded %s: %d songs, %d bytes in %.2f s%n", inputFile, library.getSongs().size(), Files.size(inputFile), secondsSince(loadStart));
+
+        long saveStart = System.nanoTime();
+
+        writeLibrary(library, outputFile);
+
+        System.out.printf("Saved %s: %d songs, %d bytes in %.2f s%n", outputFile, library.getSongs().size(), Files.size(outputFile), secondsSince(saveStart));
+
+        return 0;
+    }
+
+    /**
+     * Journal records not yet in the library file are applied, but the journal itself is not modified.
+     */
+    private Library loadLibrary() throws Exception {
+        var library = Files.exists(libraryFile)
+                ? readLibrary(libraryFile)
+                : new Library();
+
+        if (!DatabaseLibraryStore.isDatabaseFile(libraryFile) && Files.exists(journalFile)) {
+            var result = LibraryJournal.replay(journalFile, library);
+
+            if (result.numApplied() > 0) {
+                System.out.printf("Applied %d of %d journal records%n", result.numApplied(), result.numRecords());
+            }
+        }
+
+        return library;
+    }
+
+    private static Library readLibrary(Path file) throws Exception {
+        if (DatabaseLibraryStore.isDatabaseFile(file)) {
+            try (var store = DatabaseLibraryStore.open(file)) {
+                return store.load();
+            }
+        }
+
+        if (BinaryLibraryFormat.isBinaryLibraryFile(file))
+            return BinaryLibraryFormat.read(file);
+
+        return Serializer.fromSerializable(Serializer.readLibraryFromFile(file));
+    }
+
+    private static void writeLibrary(Library library, Path file) throws Exception {
+        if (file.getFileName().toString().endsWith(".bin")) {
+            BinaryLibraryFormat.write(library, file);
+        } else if (DatabaseLibraryStore.isDatabaseFile(file)) {
+            try (var store = DatabaseLibraryStore.open(file)) {
+                store.save(library);
+            }
+        } else {
+            Serializer.writeToFile(library, file);
+        }
+    }
+
+    /**
+     * Fingerprints are only meaningful together with the library they were created with.
+     */
+    private FingerprintIndex loadFingerprints() {
+        if (!Files.exists(libraryFile) || !Files.exists(fingerprintsFile))
+            return new FingerprintIndex();
+
+        return Serializer.readFingerprintsFromFile(fingerprintsFile);
+    }
+
+    private static double secondsSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000_000.0;
+    }
+
+    private static void printUsage() {
+        System.out.println("""
+                Usage: LibraryTool [options] command [args]
+
+                Commands:
+                  import dir...   import (incrementally) the given directories
+                  rescan          incrementally rescan all previously imported directories
+                  validate        check library consistency, exits with 1 if problems are found
+                  stats           print library statistics
+                  convert in out  convert a library file between JSON, binary and database format
+
+                Options:
+                  --library file       library file (default: library.json)
+                  --fingerprints file  fingerprints file (default: fingerprints.json)
+                  --journal file       journal file (default: library.journal)
+                  --threads n          number of tag reader threads (default: number of cores)
+                  --no-content-hash    do not compute content hashes for duplicate detection""");
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.artwork;
+
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded artwork images, bounded by the memory their pixels take up.
+ * When adding an image would exceed [maxBytes], the least recently used images are evicted.
+ * Songs reference their artwork by key, so evicted images can be garbage collected
+ * and are loaded again when next needed.
+ * Thread-safe.
+ */
+public final class ArtworkCache {
+
+    /**
+     * JavaFX stores decoded images as 32-bit ARGB.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Artwork key of songs known to have no artwork, never cached.
+     */
+    public static final String NO_ARTWORK = "";
+
+    private final long maxBytes;
+
+    /**
+     * In access order, so the first entry is the least recently used.
+     */
+    private final LinkedHashMap<String, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long numBytes = 0L;
+
+    private long numHits = 0L;
+    private long numMisses = 0L;
+    private long numEvictions = 0L;
+
+    public ArtworkCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return cached image for [key] or null if it is not cached
+     */
+    public synchronized Image get(String key) {
+        var image = images.get(key);
+
+        if (image != null) {
+            numHits++;
+        } else {
+            numMisses++;
+        }
+
+        return image;
+    }
+
+    /**
+     * Adds or replaces the image for [key], evicting least recently used images if needed.
+     * Images larger than the whole budget are not cached.
+     */
+    public synchronized void put(String key, Image image) {
+        long size = sizeOf(image);
+
+        if (size > maxBytes)
+            return;
+
+        var oldImage = images.put(key, image);
+
+        if (oldImage != null) {
+            numBytes -= sizeOf(oldImage);
+        }
+
+        numBytes += size;
+
+        Iterator<Map.Entry<String, Image>> it = images.entrySet().iterator();
+
+        while (numBytes > maxBytes && it.hasNext()) {
+            var entry = it.next();
+
+            if (entry.getKey().equals(key))
+                continue;
+
+            numBytes -= sizeOf(entry.getValue());
+            numEvictions++;
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        images.clear();
+        numBytes = 0L;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(numHits, numMisses, numEvictions, images.size(), numBytes, maxBytes);
+    }
+
+    private static long sizeOf(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * @param numImages number of cached images
+     * @param numBytes bytes taken up by the pixels of cached images
+     */
+    public record Stats(long numHits, long numMisses, long numEvictions, int numImages, long numBytes, long maxBytes) {
+
+        public double hitRate() {
+            long numRequests = numHits + numMisses;
+
+            return numRequests == 0 ? 0.0 : (double) numHits / numRequests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d images, %.1f of %.1f MB, hits: %d, misses: %d (hit rate %.0f%%), evictions: %d",
+                    numImages,
+                    numBytes / 1024.0 / 1024.0,
+                    maxBytes / 1024.0 / 1024.0,
+                    numHits,
+                    numMisses,
+                    hitRate() * 100,
+                    numEvictions
+            );
+        }
+    }
+}
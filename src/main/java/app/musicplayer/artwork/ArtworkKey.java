@@ -0,0 +1,41 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.artwork;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Artwork is addressed by its content: songs that embed the same picture, e.g. all tracks of an album,
+ * have the same key and therefore share a single decoded image.
+ */
+public final class ArtworkKey {
+
+    /**
+     * 128 bits of SHA-256, so that different pictures do not collide in practice.
+     */
+    private static final int KEY_BYTES = 16;
+
+    private ArtworkKey() { }
+
+    /**
+     * @return key of the encoded (e.g. JPEG) picture [imageBytes]
+     */
+    public static String of(byte[] imageBytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(imageBytes);
+
+            return HexFormat.of().formatHex(digest, 0, KEY_BYTES);
+
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
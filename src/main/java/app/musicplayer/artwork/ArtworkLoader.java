@@ -0,0 +1,298 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.artwork;
+
+import app.musicplayer.model.Song;
+import com.almasb.fxgl.logging.Logger;
+import javafx.scene.image.Image;
+import org.jaudiotagger.audio.AudioFileIO;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads embedded artwork on a low-priority background thread and decodes it at the display size,
+ * so that full-size pictures are never decoded.
+ * Artwork is cached by {@link ArtworkKey}, so a picture shared by many songs, e.g. an album cover,
+ * is decoded and kept in memory once.
+ * Decoded artwork is also kept in a {@link ThumbnailCache}, so after a restart it is shown without parsing tags.
+ * Requests for the same file that are in flight at the same time share a single read.
+ * Cancelled requests are skipped if their read has not started yet, e.g. when the user skips through songs.
+ */
+public final class ArtworkLoader implements AutoCloseable {
+
+    private static final Logger log = Logger.get(ArtworkLoader.class);
+
+    private final ArtworkCache cache;
+    private final ThumbnailCache thumbnails;
+    private final int size;
+    private final Executor callbackExecutor;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "ArtworkLoader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Reads in flight or queued, by file.
+     */
+    private final Map<Path, Job> jobs = new HashMap<>();
+
+    /**
+     * Only written on the worker thread.
+     */
+    private volatile long numReads = 0L;
+    private volatile long numDecodes = 0L;
+    private volatile long numThumbnailReads = 0L;
+
+    /**
+     * @param size artwork is scaled to fit a square of this size
+     * @param callbackExecutor the thread that owns the songs, e.g. Platform::runLater
+     */
+    public ArtworkLoader(ArtworkCache cache, ThumbnailCache thumbnails, int size, Executor callbackExecutor) {
+        this.cache = cache;
+        this.thumbnails = thumbnails;
+        this.size = size;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Loads the artwork of [song] and passes it to [onLoaded], or null if the song has none.
+     * Must be called on the [callbackExecutor] thread. If the artwork is cached, [onLoaded] is called immediately.
+     * The file is only read if the song's artwork key is not yet known or its image was evicted.
+     */
+    public Request load(Song song, Consumer<Image> onLoaded) {
+        var key = song.getArtworkKey();
+
+        if (ArtworkCache.NO_ARTWORK.equals(key)) {
+            onLoaded.accept(null);
+            return Request.DONE;
+        }
+
+        if (key != null) {
+            var image = cache.get(key);
+
+            if (image != null) {
+                onLoaded.accept(image);
+                return Request.DONE;
+            }
+        }
+
+        ArtworkCallback callback = (loadedKey, loadedImage) -> {
+            song.setArtworkKey(loadedImage != null ? loadedKey : ArtworkCache.NO_ARTWORK);
+            onLoaded.accept(loadedImage);
+        };
+
+        var file = song.getFile().toAbsolutePath();
+
+        synchronized (jobs) {
+            var job = jobs.get(file);
+
+            if (job == null) {
+                job = new Job(file);
+                jobs.put(file, job);
+
+                worker.execute(job);
+            }
+
+            job.callbacks.add(callback);
+
+            var requestJob = job;
+
+            return () -> {
+                synchronized (jobs) {
+                    requestJob.callbacks.remove(callback);
+                }
+            };
+        }
+    }
+
+    /**
+     * @return number of files whose tags were read
+     */
+    public long getNumReads() {
+        return numReads;
+    }
+
+    public long getNumThumbnailReads() {
+        return numThumbnailReads;
+    }
+
+    /**
+     * Fewer than {@link #getNumReads()} if songs share artwork.
+     */
+    public long getNumDecodes() {
+        return numDecodes;
+    }
+
+    private final class Job implements Runnable {
+
+        private final Path file;
+
+        /**
+         * Guarded by [jobs].
+         */
+        private final List<ArtworkCallback> callbacks = new ArrayList<>();
+
+        private Job(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            synchronized (jobs) {
+                // all requests were cancelled
+                if (callbacks.isEmpty()) {
+                    jobs.remove(file);
+                    return;
+                }
+            }
+
+            String key = thumbnails.findKey(file);
+            Image image = null;
+
+            if (key != null && !key.equals(ArtworkCache.NO_ARTWORK)) {
+                image = readThumbnail(key);
+            }
+
+            // not in the thumbnail cache or the thumbnail is gone
+            if (key == null || (image == null && !key.equals(ArtworkCache.NO_ARTWORK))) {
+                byte[] bytes = readArtworkBytes(file);
+
+                if (bytes != null) {
+                    key = ArtworkKey.of(bytes);
+                    image = decode(key, bytes);
+                }
+
+                if (image != null) {
+                    thumbnails.put(file, key, image);
+                } else {
+                    thumbnails.putNoArtwork(file);
+                }
+            }
+
+            List<ArtworkCallback> toNotify;
+
+            synchronized (jobs) {
+                jobs.remove(file);
+                toNotify = List.copyOf(callbacks);
+            }
+
+            if (!toNotify.isEmpty()) {
+                var loadedKey = key;
+                var loadedImage = image;
+
+                callbackExecutor.execute(() -> toNotify.forEach(callback -> callback.onLoaded(loadedKey, loadedImage)));
+            }
+        }
+    }
+
+    /**
+     * @return the cached image for [key] if another song with the same picture was loaded, otherwise the thumbnail on disk
+     */
+    private Image readThumbnail(String key) {
+        var image = cache.get(key);
+
+        if (image != null)
+            return image;
+
+        image = thumbnails.read(key);
+
+        if (image != null) {
+            numThumbnailReads++;
+            cache.put(key, image);
+        }
+
+        return image;
+    }
+
+    /**
+     * @return the cached image for [key] if another song with the same picture was loaded, otherwise [bytes] decoded
+     */
+    private Image decode(String key, byte[] bytes) {
+        var image = cache.get(key);
+
+        if (image != null)
+            return image;
+
+        image = new Image(new ByteArrayInputStream(bytes), size, size, true, true);
+        numDecodes++;
+
+        if (image.isError()) {
+            log.warning("Failed to decode artwork", image.getException());
+            return null;
+        }
+
+        cache.put(key, image);
+
+        return image;
+    }
+
+    /**
+     * @return encoded picture embedded in [file] or null if there is none
+     */
+    private byte[] readArtworkBytes(Path file) {
+        numReads++;
+
+        try {
+            var tag = AudioFileIO.read(file.toFile()).getTag();
+
+            if (tag != null && tag.getFirstArtwork() != null)
+                return tag.getFirstArtwork().getBinaryData();
+
+        } catch (Exception e) {
+            log.warning("Failed to load artwork for: " + file, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Waits briefly for the current read, so that its thumbnail is not left half-written.
+     */
+    @Override
+    public void close() {
+        worker.shutdownNow();
+
+        try {
+            worker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface ArtworkCallback {
+
+        /**
+         * [key] and [image] are null if there is no artwork.
+         */
+        void onLoaded(String key, Image image);
+    }
+
+    public interface Request {
+
+        Request DONE = () -> { };
+
+        /**
+         * The callback of a cancelled request is not called.
+         * If no other request is waiting for the same artwork, it is not read.
+         */
+        void cancel();
+    }
+}
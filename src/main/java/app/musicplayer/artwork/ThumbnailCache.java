@@ -0,0 +1,245 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.artwork;
+
+import app.musicplayer.library.FileFingerprint;
+import app.musicplayer.model.serializable.SerializableThumbnail;
+import app.musicplayer.model.serializable.SerializableThumbnails;
+import app.musicplayer.model.serializable.Serializer;
+import com.almasb.fxgl.logging.Logger;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Pre-scaled artwork on disk, so that artwork can be shown after a restart without parsing tags.
+ * Thumbnails are JPEG files named by {@link ArtworkKey}, so songs with the same picture share one file.
+ * An index maps each audio file, with its size and modification time, to its artwork key.
+ * Entries of files that changed since are ignored and replaced when the file is read again.
+ * The index is read on first use and written by {@link #save()}.
+ * Entries are kept until dropped by {@link #retainAll(Set)}. Thread-safe.
+ */
+public final class ThumbnailCache {
+
+    private static final Logger log = Logger.get(ThumbnailCache.class);
+
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String THUMBNAIL_EXTENSION = ".jpg";
+
+    private final Path directory;
+
+    /**
+     * Null until first used.
+     */
+    private Map<Path, Entry> entries = null;
+
+    private boolean isModified = false;
+
+    public ThumbnailCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return artwork key of [file], {@link ArtworkCache#NO_ARTWORK} if it has none,
+     * or null if the file is not in the index or changed since
+     */
+    public String findKey(Path file) {
+        Entry entry;
+
+        synchronized (this) {
+            entry = getEntries().get(file);
+        }
+
+        if (entry == null)
+            return null;
+
+        try {
+            return entry.fingerprint().equals(FileFingerprint.of(file)) ? entry.artworkKey() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return thumbnail for [key] or null if it is not on disk
+     */
+    public Image read(String key) {
+        var thumbnailFile = thumbnailFile(key);
+
+        if (!Files.exists(thumbnailFile))
+            return null;
+
+        try (InputStream in = Files.newInputStream(thumbnailFile)) {
+            var image = new Image(in);
+
+            return image.isError() ? null : image;
+
+        } catch (IOException e) {
+            log.warning("Failed to read thumbnail: " + thumbnailFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Records that [file] has the artwork [image] with [key], writing the thumbnail if it is not on disk yet.
+     */
+    public void put(Path file, String key, Image image) {
+        var thumbnailFile = thumbnailFile(key);
+
+        try {
+            if (!Files.exists(thumbnailFile)) {
+                writeJpeg(image, thumbnailFile);
+            }
+
+            putEntry(file, key);
+
+        } catch (IOException e) {
+            log.warning("Failed to write thumbnail: " + thumbnailFile, e);
+        }
+    }
+
+    /**
+     * Records that [file] has no artwork.
+     */
+    public void putNoArtwork(Path file) {
+        try {
+            putEntry(file, ArtworkCache.NO_ARTWORK);
+        } catch (IOException e) {
+            log.warning("Failed to stat: " + file, e);
+        }
+    }
+
+    private void putEntry(Path file, String key) throws IOException {
+        var entry = new Entry(FileFingerprint.of(file), key);
+
+        synchronized (this) {
+            getEntries().put(file, entry);
+            isModified = true;
+        }
+    }
+
+    /**
+     * Drops entries of files that are not in [files], e.g. songs removed from the library,
+     * so that their thumbnails are deleted by the next {@link #save()}.
+     */
+    public synchronized void retainAll(Set<Path> files) {
+        if (getEntries().keySet().retainAll(files)) {
+            isModified = true;
+        }
+    }
+
+    /**
+     * Writes the index if it changed and deletes thumbnails that no file refers to.
+     */
+    public synchronized void save() {
+        if (!isModified)
+            return;
+
+        try {
+            Files.createDirectories(directory);
+
+            Serializer.writeToFile(
+                    new SerializableThumbnails(
+                            entries.entrySet()
+                                    .stream()
+                                    .map(e -> new SerializableThumbnail(
+                                            e.getKey().toString(),
+                                            e.getValue().fingerprint().size(),
+                                            e.getValue().fingerprint().lastModified(),
+                                            e.getValue().artworkKey()
+                                    ))
+                                    .toList()
+                    ),
+                    directory.resolve(INDEX_FILE_NAME)
+            );
+
+            Set<String> usedFileNames = entries.values()
+                    .stream()
+                    .map(entry -> entry.artworkKey() + THUMBNAIL_EXTENSION)
+                    .collect(Collectors.toSet());
+
+            try (var files = Files.list(directory)) {
+                for (Path thumbnailFile : files.toList()) {
+                    var fileName = thumbnailFile.getFileName().toString();
+
+                    if (fileName.endsWith(THUMBNAIL_EXTENSION) && !usedFileNames.contains(fileName)) {
+                        Files.deleteIfExists(thumbnailFile);
+                    }
+                }
+            }
+
+            isModified = false;
+
+        } catch (IOException e) {
+            log.warning("Failed to save thumbnail index", e);
+        }
+    }
+
+    private Map<Path, Entry> getEntries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+
+            var indexFile = directory.resolve(INDEX_FILE_NAME);
+
+            if (Files.exists(indexFile)) {
+                for (SerializableThumbnail t : Serializer.readThumbnailsFromFile(indexFile).files()) {
+                    entries.put(Paths.get(t.filePath()), new Entry(new FileFingerprint(t.size(), t.lastModified()), t.artworkKey()));
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private Path thumbnailFile(String key) {
+        return directory.resolve(key + THUMBNAIL_EXTENSION);
+    }
+
+    /**
+     * Written to a temporary file first, so that a partially written thumbnail is never read.
+     * JPEG has no alpha channel, so transparent pixels become black, which is fine for cover art.
+     */
+    private void writeJpeg(Image image, Path file) throws IOException {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+
+        int[] pixels = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+
+        var bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        bufferedImage.setRGB(0, 0, width, height, pixels, 0, width);
+
+        Files.createDirectories(directory);
+
+        var tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            if (!ImageIO.write(bufferedImage, "jpg", tmpFile.toFile()))
+                throw new IOException("No JPEG writer available");
+
+            Files.move(tmpFile, file, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private record Entry(FileFingerprint fingerprint, String artworkKey) { }
+}
@@ -0,0 +1,133 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.controllers;
+
+import com.almasb.fxgl.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives FXGL animations from the JavaFX pulse with the real time elapsed between frames.
+ * The underlying timer only runs while there is something to animate and the scheduler is not suspended,
+ * so an idle player does not wake up every frame.
+ * Must be used on the JavaFX thread.
+ */
+public final class FrameScheduler {
+
+    /**
+     * Longer frames, e.g. after the application was stalled, are clamped so that animations do not jump.
+     */
+    private static final double MAX_FRAME_SECONDS = 0.1;
+
+    private final List<Animation<?>> animations = new ArrayList<>();
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            onFrame(now);
+        }
+    };
+
+    private boolean isRunning = false;
+    private boolean isSuspended = false;
+
+    /**
+     * Time of the previous frame in nanoseconds, or -1 if the timer was just started.
+     */
+    private long lastFrameNanos = -1L;
+
+    /**
+     * Held so that the binding is not garbage collected.
+     */
+    private ObservableValue<Boolean> iconified = null;
+
+    /**
+     * Starts [animation] and updates it every frame until it finishes or is stopped.
+     */
+    public void play(Animation<?> animation) {
+        animation.start();
+        animations.add(animation);
+
+        updateTimer();
+    }
+
+    public void stop(Animation<?> animation) {
+        animation.stop();
+        animations.remove(animation);
+
+        updateTimer();
+    }
+
+    public void stopAll() {
+        animations.forEach(Animation::stop);
+        animations.clear();
+
+        updateTimer();
+    }
+
+    /**
+     * While suspended, animations keep their state and resume from where they were.
+     */
+    public void setSuspended(boolean isSuspended) {
+        this.isSuspended = isSuspended;
+
+        updateTimer();
+    }
+
+    /**
+     * Suspends this scheduler while the stage showing [node] is iconified.
+     */
+    public void suspendWhileIconified(Node node) {
+        iconified = node.sceneProperty()
+                .flatMap(Scene::windowProperty)
+                .flatMap(window -> window instanceof Stage stage ? stage.iconifiedProperty() : null)
+                .orElse(false);
+
+        iconified.addListener((o, wasIconified, isIconified) -> setSuspended(isIconified));
+        setSuspended(iconified.getValue());
+    }
+
+    private void onFrame(long now) {
+        if (lastFrameNanos >= 0) {
+            double tpf = Math.min((now - lastFrameNanos) / 1_000_000_000.0, MAX_FRAME_SECONDS);
+
+            // indexed, so that an animation can stop others when it finishes
+            for (int i = 0; i < animations.size(); i++) {
+                animations.get(i).onUpdate(tpf);
+            }
+        }
+
+        lastFrameNanos = now;
+
+        animations.removeIf(animation -> !animation.isAnimating());
+
+        updateTimer();
+    }
+
+    private void updateTimer() {
+        boolean shouldRun = !isSuspended && !animations.isEmpty();
+
+        if (shouldRun == isRunning)
+            return;
+
+        isRunning = shouldRun;
+
+        if (shouldRun) {
+            lastFrameNanos = -1L;
+            timer.start();
+        } else {
+            timer.stop();
+        }
+    }
+}
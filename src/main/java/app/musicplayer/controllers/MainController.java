@@ -8,7 +8,21 @@
 package app.musicplayer.controllers;
 
 import app.musicplayer.Config;
+import app.musicplayer.artwork.ArtworkCache;
+import app.musicplayer.artwork.ArtworkLoader;
+import app.musicplayer.artwork.ThumbnailCache;
 import app.musicplayer.events.UserEvent;
+import app.musicplayer.library.BatchPublisher;
+import app.musicplayer.library.DatabaseLibraryStore;
+import app.musicplayer.library.FingerprintIndex;
+import app.musicplayer.library.ImportEngine;
+import app.musicplayer.library.JsonLibraryStore;
+import app.musicplayer.library.LibraryJournal;
+import app.musicplayer.library.LibraryStore;
+import app.musicplayer.library.LibraryUpdater;
+import app.musicplayer.library.LibraryWatcher;
+import app.musicplayer.library.RescanResult;
+import app.musicplayer.library.Rescanner;
 import app.musicplayer.model.Library;
 import app.musicplayer.model.Playlist;
 import app.musicplayer.model.Song;
@@ -32,7 +46,6 @@ import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
-import javafx.scene.image.Image;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
@@ -40,18 +53,20 @@ import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Popup;
 import javafx.util.Duration;
-import org.jaudiotagger.audio.AudioFile;
-import org.jaudiotagger.audio.AudioFileIO;
-import org.jaudiotagger.tag.Tag;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
 
 import static app.musicplayer.Config.*;
 import static app.musicplayer.events.UserDataEvent.*;
@@ -87,6 +102,37 @@ public class MainController implements Initializable, PlaylistViewController.Pla
 
     private Library library;
 
+    /**
+     * Fingerprints of imported files, used to only re-read files that changed since the last import.
+     */
+    private FingerprintIndex fingerprints = new FingerprintIndex();
+
+    /**
+     * Keeps the library in sync with imported folders, null if disabled or not yet started.
+     */
+    private LibraryWatcher watcher = null;
+
+    /**
+     * Plays and playlist edits are recorded individually instead of saving the whole library.
+     * Null until the library can be shown, edits made while the rest of it is loaded are recorded by the store once it has loaded.
+     */
+    private LibraryStore store = null;
+
+    /**
+     * False while songs are still being read from the store.
+     * Until then, the library is incomplete, so it is neither imported into nor written on exit.
+     */
+    private boolean isLibraryLoaded = false;
+
+    /**
+     * Decoded artwork of recently shown songs, bounded by the "artworkCacheMegabytes" preference.
+     */
+    private ArtworkCache artworkCache;
+    private ThumbnailCache thumbnailCache;
+    private ArtworkLoader artworkLoader;
+
+    private ArtworkLoader.Request artworkRequest = ArtworkLoader.Request.DONE;
+
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         log.info("initialize()");
@@ -106,24 +152,35 @@ public class MainController implements Initializable, PlaylistViewController.Pla
         initEventHandlers();
         initSearchField();
 
-        if (Files.exists(LIBRARY_FILE)) {
-            var task = new DeserializeLibraryTask(LIBRARY_FILE);
-            task.setOnSucceeded(e -> {
-                library = task.getValue();
-                initPlaylists();
-            });
-            getExecutor().startAsync(task);
-        } else {
-            library = new Library();
-
-            initPlaylists();
-        }
-
         if (Files.exists(PREFERENCES_FILE)) {
             var map = Serializer.readPropertiesFromFile(PREFERENCES_FILE);
             PREFERENCES.addAll(map);
         }
 
+        artworkCache = new ArtworkCache(PREFERENCES.getInt("artworkCacheMegabytes") * 1024L * 1024L);
+        thumbnailCache = new ThumbnailCache(ARTWORK_CACHE_DIR);
+        artworkLoader = new ArtworkLoader(artworkCache, thumbnailCache, ARTWORK_SIZE, Platform::runLater);
+
+        var task = new LoadLibraryTask((loadedStore, loadedLibrary) -> {
+            store = loadedStore;
+            library = loadedLibrary;
+            initPlaylists();
+        });
+        task.setOnSucceeded(e -> {
+            fingerprints = task.getValue().fingerprints();
+            onLibraryLoaded();
+        });
+        task.setOnFailed(e -> {
+            // nothing is saved, so that the stored library is not overwritten with an incomplete one
+            log.warning("Failed to load library", task.getException());
+
+            if (library == null) {
+                library = new Library();
+                initPlaylists();
+            }
+        });
+        getExecutor().startAsync(task);
+
         // TODO: async
         try {
             Parent playlistMenu = FXMLLoader.load(getAssetLoader().getURL("/assets/ui/controls/PlaylistMenuVBox.fxml"));
@@ -142,16 +199,42 @@ public class MainController implements Initializable, PlaylistViewController.Pla
         });
 
         onEvent(PLAY_SONG, event -> {
+            PlaySongRequest request = (PlaySongRequest) event.getData();
+
+            mediaPaneController.play(songTableViewController.getPlaylist(), request.song(), request.requestNanos());
+        });
+
+        onEvent(SONG_PLAYED, event -> {
             Song song = (Song) event.getData();
 
-            mediaPaneController.play(songTableViewController.getPlaylist(), song);
+            recordInStore(s -> s.recordPlay(song));
+        });
+
+        onEvent(PLAY_SONGS_NEXT, event -> {
+            SongList request = (SongList) event.getData();
+
+            mediaPaneController.playNext(request.songs());
+        });
+
+        onEvent(ENQUEUE_SONGS, event -> {
+            SongList request = (SongList) event.getData();
+
+            mediaPaneController.enqueue(request.songs());
         });
 
         onEvent(LOAD_SONG_ARTWORK, event -> {
             Song song = (Song) event.getData();
 
-            var image = loadArtwork(song.getFile());
-            song.setArtwork(image);
+            // stale requests are cancelled, so skipping through songs does not queue up reads
+            artworkRequest.cancel();
+
+            mediaPaneController.showArtwork(song, image("albumsIcon.png"));
+
+            artworkRequest = artworkLoader.load(song, artwork -> {
+                if (artwork != null) {
+                    mediaPaneController.showArtwork(song, artwork);
+                }
+            });
         });
 
         onEvent(NAGIVATE_TO_SONG, event -> {
@@ -191,6 +274,106 @@ public class MainController implements Initializable, PlaylistViewController.Pla
         songTableViewController.setPlaylist(library.getLibraryPlaylist());
     }
 
+    /**
+     * Called on the JavaFX thread once all songs have been added to the library.
+     */
+    private void onLibraryLoaded() {
+        isLibraryLoaded = true;
+
+        // the store may have created or deleted playlists after the sidebar was built, e.g. by replaying the journal
+        var playlists = library.getPlaylists();
+
+        playlistBox.getChildren().removeIf(view -> !playlists.contains((Playlist) view.getProperties().get("PLAYLIST")));
+
+        playlists.stream()
+                .filter(p -> getPlaylistView(p).isEmpty())
+                .forEach(this::addNewPlaylistToUI);
+
+        initLibraryWatcher();
+    }
+
+    private static LibraryStore openLibraryStore() throws IOException {
+        if (!"database".equals(PREFERENCES.getString("libraryStore")))
+            return new JsonLibraryStore(LIBRARY_FILE, JOURNAL_FILE, PREFERENCES.getBoolean("prettyLibraryFile"), JOURNAL_COMPACTION_THRESHOLD);
+
+        boolean isNew = !Files.exists(LIBRARY_DATABASE_FILE);
+
+        var store = DatabaseLibraryStore.open(LIBRARY_DATABASE_FILE);
+
+        // the JSON library is left as is, so that switching back is possible
+        if (isNew && Files.exists(LIBRARY_FILE)) {
+            log.info("Copying " + LIBRARY_FILE + " to " + LIBRARY_DATABASE_FILE);
+
+            var library = Serializer.fromSerializable(Serializer.readLibraryFromFile(LIBRARY_FILE));
+
+            if (Files.exists(JOURNAL_FILE)) {
+                LibraryJournal.replay(JOURNAL_FILE, library);
+            }
+
+            store.save(library);
+        }
+
+        return store;
+    }
+
+    /**
+     * Must be called on the JavaFX thread, right after the change was made to the library.
+     */
+    private void recordInStore(Consumer<LibraryStore> action) {
+        if (store == null)
+            return;
+
+        action.accept(store);
+    }
+
+    /**
+     * Saves the whole library in the background, for changes that are not recorded individually.
+     */
+    private void saveLibrary() {
+        if (store != null) {
+            store.save(library);
+        }
+    }
+
+    private void initLibraryWatcher() {
+        if (!PREFERENCES.getBoolean("watchLibraryFolders"))
+            return;
+
+        try {
+            watcher = new LibraryWatcher(WATCH_DEBOUNCE_MILLIS, this::onLibraryFilesChanged);
+
+            fingerprints.getRoots().forEach(watcher::watch);
+
+        } catch (Exception e) {
+            log.warning("Cannot watch library folders", e);
+        }
+    }
+
+    /**
+     * Called on the watcher thread with debounced changes.
+     * Only the changed files are read, the library itself is updated on the JavaFX thread.
+     */
+    private void onLibraryFilesChanged(Set<Path> paths) {
+        try {
+            var rescanner = new Rescanner(newImportEngine(), fingerprints);
+            var result = rescanner.rescanPaths(paths, library::allocateSongId, (file, numProcessed, numFiles) -> {});
+
+            if (result.hasChanges()) {
+                log.info("Library folders changed: " + result);
+
+                var missingFiles = result.findMissingFiles(library);
+
+                Platform.runLater(() -> {
+                    result.applyTo(library, missingFiles);
+                    saveLibrary();
+                });
+            }
+
+        } catch (Exception e) {
+            log.warning("Failed to update library from changed files", e);
+        }
+    }
+
     private void addNewPlaylistToUI(Playlist playlist) {
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource(Config.FXML + "controls/PlaylistView.fxml"));
@@ -215,11 +398,11 @@ public class MainController implements Initializable, PlaylistViewController.Pla
                 songTableViewController.setPlaylist(playlist);
 
                 if (playlist.getType() == MOST_PLAYED) {
-                    playlist.getSongs().setAll(getMostPlayedSongs());
+                    showPlayedSongs(playlist, s -> s.findMostPlayedSongIds(100));
                 }
 
                 if (playlist.getType() == RECENTLY_PLAYED) {
-                    playlist.getSongs().setAll(getRecentSongs());
+                    showPlayedSongs(playlist, s -> s.findRecentlyPlayedSongIds(100));
                 }
             });
 
@@ -269,6 +452,8 @@ public class MainController implements Initializable, PlaylistViewController.Pla
                             // all good
                             var playlist = library.addPlaylist(text);
 
+                            recordInStore(s -> s.recordPlaylistCreated(playlist));
+
                             addNewPlaylistToUI(playlist);
                         }
                     }
@@ -304,6 +489,15 @@ public class MainController implements Initializable, PlaylistViewController.Pla
                 .findAny();
     }
 
+    @Override
+    public void onDropSongs(Playlist playlist, List<Song> songs) {
+        for (Song song : songs) {
+            if (playlist.addSong(song)) {
+                recordInStore(s -> s.recordSongAdded(playlist, song));
+            }
+        }
+    }
+
     @Override
     public void onClickPlaylistMenu(MouseEvent e, Playlist playlist) {
         Node source = (Node) e.getSource();
@@ -347,6 +541,8 @@ public class MainController implements Initializable, PlaylistViewController.Pla
                             } else {
                                 // all good
                                 playlist.setTitle(text);
+
+                                recordInStore(s -> s.recordPlaylistRenamed(playlist));
                             }
                         }
                     }
@@ -391,6 +587,7 @@ public class MainController implements Initializable, PlaylistViewController.Pla
                             .interpolator(Interpolators.EXPONENTIAL.EASE_OUT())
                             .onFinished(() -> {
                                 library.removePlaylist(playlist);
+                                recordInStore(s -> s.recordPlaylistDeleted(playlist));
                                 playlistBox.getChildren().remove(view);
                             })
                             .translate(view)
@@ -400,10 +597,44 @@ public class MainController implements Initializable, PlaylistViewController.Pla
                 });
     }
 
+    /**
+     * Bound to PLAYBACK_STATS_SHORTCUT.
+     */
+    public void logPlaybackStats() {
+        mediaPaneController.logPlaybackStats();
+    }
+
     public void onExit() {
         mediaPaneController.onExit();
 
-        Serializer.writeToFile(library, LIBRARY_FILE);
+        artworkLoader.close();
+
+        if (isLibraryLoaded) {
+            thumbnailCache.retainAll(library.getSongs().stream().map(Song::getFile).collect(Collectors.toSet()));
+        }
+
+        thumbnailCache.save();
+
+        log.info("Artwork cache: " + artworkCache.getStats());
+        log.info("Artwork: read " + artworkLoader.getNumReads() + " files, decoded " + artworkLoader.getNumDecodes()
+                + " images, read " + artworkLoader.getNumThumbnailReads() + " thumbnails");
+
+        if (watcher != null) {
+            watcher.close();
+        }
+
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                log.warning("Failed to close library store", e);
+            }
+        }
+
+        if (isLibraryLoaded) {
+            Serializer.writeToFile(fingerprints, FINGERPRINTS_FILE);
+        }
+
         Serializer.writeToFile(PREFERENCES, PREFERENCES_FILE);
     }
 
@@ -498,25 +729,31 @@ public class MainController implements Initializable, PlaylistViewController.Pla
         public record SearchResult(List<Song> songResults) { }
     }
 
-    private List<Song> getRecentSongs() {
-        return library.getSongs()
-                .stream()
-                .filter(song -> song.getPlayCount() > 0)
-                .sorted((s1, s2) -> s2.getPlayDate().compareTo(s1.getPlayDate()))
-                .limit(100)
-                .toList();
+    /**
+     * Fills [playlist] with the songs found by [query], once the store has answered it.
+     */
+    private void showPlayedSongs(Playlist playlist, Function<LibraryStore, CompletableFuture<List<Integer>>> query) {
+        if (store == null) {
+            playlist.getSongs().clear();
+            return;
+        }
+
+        query.apply(store).thenAcceptAsync(ids -> playlist.getSongs().setAll(findSongsById(ids)), Platform::runLater);
     }
 
-    private List<Song> getMostPlayedSongs() {
-        return library.getSongs()
-                .stream()
-                .filter(song -> song.getPlayCount() > 0)
-                .sorted((s1, s2) -> Integer.compare(s2.getPlayCount(), s1.getPlayCount()))
-                .limit(100)
+    private List<Song> findSongsById(List<Integer> ids) {
+        return ids.stream()
+                .map(library::findSongById)
+                .flatMap(Optional::stream)
                 .toList();
     }
 
     private void onClickImport() {
+        if (!isLibraryLoaded) {
+            log.info("Cannot import while the library is loading");
+            return;
+        }
+
         var dirChooser = new DirectoryChooser();
         File selectedDir = dirChooser.showDialog(songTableView.getScene().getWindow());
 
@@ -525,151 +762,120 @@ public class MainController implements Initializable, PlaylistViewController.Pla
             return;
         }
 
-        var task = new LoadSongsTask(selectedDir.toPath());
-        task.setOnSucceeded(e -> {
-            library.addSongsNoDuplicateCheck(task.getValue());
-        });
-
-        getExecutor().startAsync(task);
-    }
-
-    private static class LoadSongsTask extends Task<List<Song>> {
-
-        private final Path directory;
-
-        private LoadSongsTask(Path directory) {
-            this.directory = directory;
-        }
-
-        @Override
-        protected List<Song> call() throws Exception {
-            List<Song> songs = new ArrayList<>();
+        // songs are added to the library in batches while the import is running
+        var updater = new LibraryUpdater(library);
 
-            try (Stream<Path> filesStream = Files.walk(directory)) {
-                var files = filesStream
-                        .filter(file -> Files.isRegularFile(file) && isSupportedFileType(file))
-                        .toList();
+        // checked in the background before each song is published
+        Set<Path> missingFiles = ConcurrentHashMap.newKeySet();
 
-                int id = 0;
-                int numFiles = files.size();
+        var task = new LoadSongsTask(
+                selectedDir.toPath(),
+                fingerprints,
+                library::allocateSongId,
+                song -> LibraryUpdater.findMissingFile(library, song).ifPresent(missingFiles::add),
+                songs -> updater.applyLoaded(songs, missingFiles)
+        );
+        task.setOnSucceeded(e -> {
+            var result = task.getValue();
 
-                for (var file : files) {
-                    updateMessage("Loading: " + file.getFileName());
+            log.info("Imported " + selectedDir + ": " + result);
 
-                    var song = loadSongData(id++, file);
-                    songs.add(song);
+            updater.applyRemoved(result.removedFiles());
 
-                    updateProgress(id, numFiles);
-                }
+            saveLibrary();
 
-            } catch (Exception e) {
-                log.warning("Failed to load song data", e);
+            if (watcher != null) {
+                watcher.watch(selectedDir.toPath());
             }
+        });
 
-            return songs;
-        }
-
-        private Song loadSongData(int id, Path file) throws Exception {
-            AudioFile audioFile = AudioFileIO.read(file.toFile());
+        getExecutor().startAsync(task);
+    }
 
-            int lengthSeconds = 0;
+    private static ImportEngine newImportEngine() {
+        return new ImportEngine(
+                Math.max(1, PREFERENCES.getInt("importConcurrency")),
+                PREFERENCES.getBoolean("duplicateContentCheck")
+        );
+    }
 
-            if (audioFile != null && audioFile.getAudioHeader() != null)
-                lengthSeconds = audioFile.getAudioHeader().getTrackLength();
+    /**
+     * Imports songs from a directory.
+     * Files that were imported before and have not changed since are skipped.
+     * Each loaded song is passed to [onSongLoaded] in the background,
+     * then to [onSongsLoaded] on the JavaFX thread in batches, in file order.
+     */
+    private static class LoadSongsTask extends Task<RescanResult> {
 
-            String fileName = file.getFileName().toString();
-            String title = fileName.substring(0, fileName.lastIndexOf('.'));
+        private final Path directory;
+        private final FingerprintIndex fingerprints;
+        private final IntSupplier idAllocator;
+        private final Consumer<Song> onSongLoaded;
+        private final Consumer<List<Song>> onSongsLoaded;
 
-            return new Song(
-                    id,
-                    title,
-                    lengthSeconds,
-                    0,
-                    LocalDateTime.now(),
-                    file
-            );
+        private LoadSongsTask(Path directory, FingerprintIndex fingerprints, IntSupplier idAllocator, Consumer<Song> onSongLoaded, Consumer<List<Song>> onSongsLoaded) {
+            this.directory = directory;
+            this.fingerprints = fingerprints;
+            this.idAllocator = idAllocator;
+            this.onSongLoaded = onSongLoaded;
+            this.onSongsLoaded = onSongsLoaded;
         }
 
-        private static boolean isSupportedFileType(Path file) {
-            var fileName = file.toString();
+        @Override
+        protected RescanResult call() throws Exception {
+            var rescanner = new Rescanner(newImportEngine(), fingerprints);
 
-            return SUPPORTED_FILE_EXTENSIONS.stream()
-                    .anyMatch(fileName::endsWith);
-        }
-    }
+            updateMessage("Scanning: " + directory);
 
-    private static Image loadArtwork(Path songFile) {
-        try {
-            AudioFile audioFile = AudioFileIO.read(songFile.toFile());
-            Tag tag = audioFile.getTag();
+            try (var publisher = new BatchPublisher<>(IMPORT_BATCH_SIZE, IMPORT_BATCH_INTERVAL_MILLIS, Platform::runLater, onSongsLoaded)) {
 
-            if (tag != null && tag.getFirstArtwork() != null) {
-                byte[] bytes = tag.getFirstArtwork().getBinaryData();
-                ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-                Image artwork = new Image(in, 300, 300, true, true);
+                return rescanner.rescan(directory, idAllocator, new ImportEngine.ImportListener() {
+                    @Override
+                    public void onProgress(Path file, int numProcessed, int numFiles) {
+                        updateMessage("Loading: " + file.getFileName());
+                        updateProgress(numProcessed, numFiles);
+                    }
 
-                if (!artwork.isError())
-                    return artwork;
+                    @Override
+                    public void onLoaded(Song song) {
+                        onSongLoaded.accept(song);
+                        publisher.offer(song);
+                    }
+                });
             }
-        } catch (Exception e) {
-            log.warning("Failed to load artwork for: " + songFile, e);
         }
-
-        return image("albumsIcon.png");
     }
 
-    private static class DeserializeLibraryTask extends Task<Library> {
+    /**
+     * Opens the library store and loads the library, then the file fingerprints.
+     * [onFirstPage] is called on the JavaFX thread as soon as the library can be shown, before the task succeeds.
+     */
+    private static class LoadLibraryTask extends Task<LoadedLibrary> {
 
-        private final Path file;
+        private final BiConsumer<LibraryStore, Library> onFirstPage;
 
-        private int songIndex = 0;
-        private int playlistIndex = 0;
-
-        private DeserializeLibraryTask(Path file) {
-            this.file = file;
+        private LoadLibraryTask(BiConsumer<LibraryStore, Library> onFirstPage) {
+            this.onFirstPage = onFirstPage;
         }
 
         @Override
-        protected Library call() throws Exception {
+        protected LoadedLibrary call() throws Exception {
             updateMessage("Loading library");
 
-            var library = Serializer.readLibraryFromFile(file);
-
-            updateMessage("Loading songs");
-
-            var numSongs = library.songs().size();
-            var numPlaylists = library.playlists().size();
-
-            var songs = library.songs()
-                    .stream()
-                    .map(song -> {
-                        updateProgress(songIndex++, numSongs);
-
-                        return Serializer.fromSerializable(song);
-                    })
-                    .toList();
+            var store = openLibraryStore();
+            store.load(library -> onFirstPage.accept(store, library), Platform::runLater);
 
-            updateMessage("Loading playlists");
+            var fingerprints = new FingerprintIndex();
 
-            var playlists = library.playlists()
-                    .stream()
-                    .map(p -> {
-                        updateProgress(playlistIndex++, numPlaylists);
+            if (Files.exists(FINGERPRINTS_FILE)) {
+                updateMessage("Loading file fingerprints");
 
-                        var playlist = Serializer.fromSerializable(p);
-
-                        p.songIDs().forEach(id -> {
-                            songs.stream()
-                                    .filter(s -> s.getId() == id)
-                                    .findAny()
-                                    .ifPresent(playlist::addSong);
-                        });
-
-                        return playlist;
-                    })
-                    .toList();
+                fingerprints = Serializer.readFingerprintsFromFile(FINGERPRINTS_FILE);
+            }
 
-            return new Library(playlists);
+            return new LoadedLibrary(store, fingerprints);
         }
     }
+
+    private record LoadedLibrary(LibraryStore store, FingerprintIndex fingerprints) { }
 }
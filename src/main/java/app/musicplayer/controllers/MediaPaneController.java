@@ -8,10 +8,14 @@
 package app.musicplayer.controllers;
 
 import app.musicplayer.events.UserDataEvent;
+import app.musicplayer.model.PlayQueue;
 import app.musicplayer.model.Playlist;
 import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.Serializer;
+import app.musicplayer.playback.MediaPlayerPool;
+import app.musicplayer.playback.PlaybackLatencyMonitor;
 import com.almasb.fxgl.animation.Animation;
-import javafx.application.Platform;
+import com.almasb.fxgl.logging.Logger;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.value.ChangeListener;
@@ -21,11 +25,11 @@ import javafx.fxml.Initializable;
 import javafx.geometry.Point2D;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
-import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Text;
@@ -36,10 +40,13 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
+import static app.musicplayer.Config.GAPLESS_PRELOAD_SECONDS;
+import static app.musicplayer.Config.MAX_IDLE_MEDIA_PLAYERS;
+import static app.musicplayer.Config.PLAYBACK_LATENCY_FILE;
+import static app.musicplayer.Config.PLAYBACK_LATENCY_WINDOW;
 import static app.musicplayer.Config.PREFERENCES;
 import static app.musicplayer.events.UserDataEvent.*;
 import static com.almasb.fxgl.dsl.FXGL.*;
@@ -49,6 +56,20 @@ import static com.almasb.fxgl.dsl.FXGL.*;
  */
 public final class MediaPaneController implements Initializable {
 
+    private static final Logger log = Logger.get(MediaPaneController.class);
+
+    /**
+     * "m:ss" texts of the first two hours, so that time labels are updated without building strings.
+     */
+    private static final String[] TIME_TEXTS = IntStream.range(0, 2 * 60 * 60)
+            .mapToObj(MediaPaneController::format)
+            .toArray(String[]::new);
+
+    /**
+     * The time slider is not moved more often than a 60 Hz display refreshes.
+     */
+    private static final long MIN_TIME_SLIDER_UPDATE_NANOS = 1_000_000_000L / 60;
+
     @FXML
     private HBox volumePane;
     @FXML
@@ -71,8 +92,10 @@ public final class MediaPaneController implements Initializable {
 
     @FXML
     private Pane shuffleButton;
+    @FXML
+    private Pane loopButton;
 
-    private ScheduledExecutorService executorService;
+    private FrameScheduler frameScheduler = new FrameScheduler();
 
     private boolean isReady = false;
 
@@ -80,17 +103,42 @@ public final class MediaPaneController implements Initializable {
     private BooleanProperty isShuffleOn = new SimpleBooleanProperty(false);
 
     private MediaPlayer mediaPlayer = null;
-    private Playlist playlist = null;
+    private PlayQueue queue = null;
     private Song song = null;
-    private int currentSongIndex = 0;
+
+    private PlayQueue.LoopMode loopMode = PlayQueue.LoopMode.OFF;
+
+    private MediaPlayerPool playerPool;
+
+    private PlaybackLatencyMonitor latencyMonitor = new PlaybackLatencyMonitor(PLAYBACK_LATENCY_WINDOW);
+
+    /**
+     * With gapless playback, the next song whose player was warmed up before the current song ends, otherwise null.
+     */
+    private Song preloadedSong = null;
+
+    /**
+     * Time values currently shown, so that controls are only updated when what they show changes.
+     */
+    private int shownSeconds = -1;
+    private int shownRemainingSeconds = -1;
+    private long lastTimeSliderUpdateNanos = 0L;
 
     private ChangeListener<Duration> timeChangeListener = (o, oldTime, currentTime) -> {
         if (mediaPlayer != null) {
-            updateTimeLabels(currentTime, mediaPlayer.getMedia().getDuration());
+            double seconds = currentTime.toSeconds();
+            double songSeconds = mediaPlayer.getMedia().getDuration().toSeconds();
+
+            updateTimeSlider(seconds);
+            updateTimeLabels(seconds, songSeconds);
+            preloadNextSong(seconds, songSeconds);
         }
     };
 
-    private List<Animation<?>> animations = new ArrayList<>();
+    /**
+     * Scrolls the title if it does not fit.
+     */
+    private List<Animation<?>> titleAnimations = new ArrayList<>();
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -100,27 +148,20 @@ public final class MediaPaneController implements Initializable {
             shuffleButton.pseudoClassStateChanged(PseudoClass.getPseudoClass("active"), isActive);
         });
 
-        nowPlayingArtwork.imageProperty().addListener((o, oldImage, newImage) -> {
-            if (newImage == null) {
-                fire(new UserDataEvent<>(LOAD_SONG_ARTWORK, song));
-            }
-        });
-
         volumePaneController.volumeProperty().bindBidirectional(PREFERENCES.doubleProperty("volume"));
 
-        executorService = Executors.newScheduledThreadPool(4);
-        executorService.scheduleAtFixedRate(() -> tick(), 0, 16, TimeUnit.MILLISECONDS);
-    }
+        frameScheduler.suspendWhileIconified(nowPlayingTitle);
 
-    private void tick() {
-        Platform.runLater(() -> {
-            animations.forEach(a -> a.onUpdate(0.016));
-        });
+        playerPool = new MediaPlayerPool(
+                volumePaneController.volumeProperty().divide(200),
+                volumePaneController.mutedProperty(),
+                MAX_IDLE_MEDIA_PLAYERS
+        );
     }
 
     private void startNewPlayingTitleAnimation() {
-        animations.forEach(Animation::stop);
-        animations.clear();
+        titleAnimations.forEach(frameScheduler::stop);
+        titleAnimations.clear();
 
         nowPlayingTitle.setClip(null);
 
@@ -152,10 +193,10 @@ public final class MediaPaneController implements Initializable {
                     .to(new Point2D(-dist, 0))
                     .build();
 
-            animations.add(anim1);
-            animations.add(anim2);
+            titleAnimations.add(anim1);
+            titleAnimations.add(anim2);
 
-            animations.forEach(Animation::start);
+            titleAnimations.forEach(frameScheduler::play);
         }
     }
 
@@ -170,13 +211,50 @@ public final class MediaPaneController implements Initializable {
 
     /**
      * Plays the given song from the given playlist.
+     *
+     * @param requestNanos System.nanoTime() when the user asked to play [song], to measure how long it took to start
      */
-    public void play(Playlist playlist, Song song) {
-        setSong(playlist, song);
+    public void play(Playlist playlist, Song song, long requestNanos) {
+        latencyMonitor.onRequested(requestNanos);
+
+        // the queue of the same playlist is kept, so that songs queued by the user are not lost
+        if (queue == null || queue.getPlaylist() != playlist || !queue.jumpTo(song)) {
+            if (queue != null) {
+                queue.dispose();
+            }
+
+            queue = new PlayQueue(playlist, song);
+            queue.setLoopMode(loopMode);
+            queue.setShuffled(isShuffleOn());
+        }
+
+        setSong(song);
         play();
     }
 
-    private void setSong(Playlist playlist, Song song) {
+    /**
+     * Plays [songs] after the current song, before the rest of the playlist.
+     */
+    public void playNext(List<Song> songs) {
+        if (queue == null)
+            return;
+
+        queue.playNext(songs);
+        cancelPreload();
+    }
+
+    /**
+     * Plays [songs] after songs already queued, before the rest of the playlist.
+     */
+    public void enqueue(List<Song> songs) {
+        if (queue == null)
+            return;
+
+        queue.enqueue(songs);
+        cancelPreload();
+    }
+
+    private void setSong(Song song) {
         if (this.song != null) {
             var prevSong = this.song;
             prevSong.setPlaying(false);
@@ -184,79 +262,112 @@ public final class MediaPaneController implements Initializable {
             releaseMediaPlayer();
         }
 
-        this.playlist = playlist;
+        // a player warmed up for this song is reused
+        mediaPlayer = playerPool.acquire(song);
+        latencyMonitor.onPlayerAcquired(mediaPlayer);
+
+        // the song after this one may be different now
+        cancelPreload();
+
         this.song = song;
-        currentSongIndex = playlist.getSongs().indexOf(song);
         isReady = true;
 
         nowPlayingTitle.textProperty().bind(song.titleProperty());
-        nowPlayingArtwork.imageProperty().bind(song.artworkProperty());
+        nowPlayingArtwork.setImage(null);
+        fire(new UserDataEvent<>(LOAD_SONG_ARTWORK, song));
 
         startNewPlayingTitleAnimation();
 
         timeSlider.setMax(song.getLengthInSeconds() * 4);
 
-        Media media = new Media(song.getFile().toUri().toString());
-        mediaPlayer = new MediaPlayer(media);
-        mediaPlayer.volumeProperty().bind(volumePaneController.volumeProperty().divide(200));
-        mediaPlayer.muteProperty().bind(volumePaneController.mutedProperty());
-        mediaPlayer.setOnEndOfMedia(this::next);
+        shownSeconds = -1;
+        shownRemainingSeconds = -1;
+
+        mediaPlayer.setOnEndOfMedia(this::onEndOfMedia);
         mediaPlayer.currentTimeProperty().addListener(timeChangeListener);
 
         isPlaying.bind(mediaPlayer.statusProperty().isEqualTo(MediaPlayer.Status.PLAYING));
     }
 
+    /**
+     * Warms up the player of the next song a few seconds before the current song ends,
+     * so that it starts immediately when the current song does.
+     */
+    private void preloadNextSong(double seconds, double songSeconds) {
+        // the song duration is NaN until the media is loaded
+        if (preloadedSong != null || !(songSeconds - seconds <= GAPLESS_PRELOAD_SECONDS))
+            return;
+
+        if (!PREFERENCES.getBoolean("gaplessPlayback"))
+            return;
+
+        var song = queue.peekNext();
+
+        if (song == null)
+            return;
+
+        preloadedSong = song;
+        playerPool.warmUp(song);
+    }
+
+    /**
+     * Shows [artwork] if [song] is still the current song.
+     */
+    public void showArtwork(Song song, Image artwork) {
+        if (this.song == song) {
+            nowPlayingArtwork.setImage(artwork);
+        }
+    }
+
     @FXML
     private void prev() {
         if (!isReady)
             return;
 
-        if (currentSongIndex == 0) {
+        var prevSong = queue.previous();
+
+        if (prevSong == null) {
             seek(0);
             return;
         }
 
         boolean wasPlaying = isPlaying();
-        setSong(playlist, playlist.getSongs().get(currentSongIndex - 1));
+        setSong(prevSong);
 
         if (wasPlaying)
             play();
     }
 
     /**
-     * Moves to the next song in the playlist based on control pane criteria (e.g. shuffle, loop).
+     * Moves to the next song in the playlist based on control pane criteria (e.g. shuffle, loop all).
      */
     @FXML
     private void next() {
+        moveTo(queue::next);
+    }
+
+    /**
+     * Unlike next(), repeats the current song if looping one song.
+     */
+    private void onEndOfMedia() {
+        moveTo(queue::onEndOfMedia);
+    }
+
+    private void moveTo(Supplier<Song> nextSong) {
         if (!isReady)
             return;
 
         boolean wasPlaying = isPlaying();
 
-        setNextSong();
-
-        if (wasPlaying)
-            play();
-    }
-
-    private void setNextSong() {
-        // TODO: set via UI buttons
-        boolean isLoop1On = false;
-        boolean isLoopAllOn = false;
-
-        if (isLoop1On) {
-            setSong(playlist, song);
-            return;
-        }
+        var song = nextSong.get();
 
-        // we reached the playlist end, if loop all is on, then play first song
-        if (currentSongIndex == playlist.getSongs().size() - 1 && isLoopAllOn) {
-            setSong(playlist, playlist.getSongs().get(0));
-            return;
+        // we reached the playlist end
+        if (song != null) {
+            setSong(song);
         }
 
-        // we know there are still songs in the playlist, then play the next
-        setSong(playlist, playlist.getSongs().get(currentSongIndex + 1));
+        if (wasPlaying)
+            play();
     }
 
     /**
@@ -272,6 +383,8 @@ public final class MediaPaneController implements Initializable {
             song.setPlaying(true);
             song.setPlayCount(song.getPlayCount() + 1);
             song.setPlayDate(LocalDateTime.now());
+
+            fire(new UserDataEvent<>(SONG_PLAYED, song));
         }
     }
 
@@ -295,21 +408,28 @@ public final class MediaPaneController implements Initializable {
 
         isShuffleOn.set(!isShuffleOn());
 
-        if (isShuffleOn()) {
-            playlist.shuffle();
-        } else {
-            playlist.restoreFromShuffle();
-        }
+        queue.setShuffled(isShuffleOn());
 
-        currentSongIndex = playlist.getSongs().indexOf(song);
+        cancelPreload();
     }
 
+    /**
+     * Cycles through off, loop all and loop one.
+     */
     @FXML
     private void toggleLoop() {
         if (!isReady)
             return;
 
-        System.out.println("TODO: toggle loop");
+        var modes = PlayQueue.LoopMode.values();
+        loopMode = modes[(loopMode.ordinal() + 1) % modes.length];
+
+        queue.setLoopMode(loopMode);
+
+        loopButton.pseudoClassStateChanged(PseudoClass.getPseudoClass("active"), loopMode != PlayQueue.LoopMode.OFF);
+        loopButton.pseudoClassStateChanged(PseudoClass.getPseudoClass("one"), loopMode == PlayQueue.LoopMode.ONE);
+
+        cancelPreload();
     }
 
     @FXML
@@ -317,7 +437,7 @@ public final class MediaPaneController implements Initializable {
         if (!isReady)
             return;
 
-        fire(new UserDataEvent<>(NAGIVATE_TO_SONG, new PlaylistAndSong(playlist, song)));
+        fire(new UserDataEvent<>(NAGIVATE_TO_SONG, new PlaylistAndSong(queue.getPlaylist(), song)));
     }
 
     private void seek(int seconds) {
@@ -327,16 +447,51 @@ public final class MediaPaneController implements Initializable {
         mediaPlayer.seek(Duration.seconds(seconds));
     }
 
-    private void updateTimeLabels(Duration currentTime, Duration songTime) {
-        if (!timeSlider.isPressed()) {
-            timeSlider.setValue(currentTime.toSeconds() * 4);
+    /**
+     * Moves the slider at most once per frame, and only if it would move by at least a pixel.
+     */
+    private void updateTimeSlider(double seconds) {
+        if (timeSlider.isPressed())
+            return;
+
+        long now = System.nanoTime();
+
+        if (now - lastTimeSliderUpdateNanos < MIN_TIME_SLIDER_UPDATE_NANOS)
+            return;
+
+        double value = seconds * 4;
+        double pixelsPerValue = timeSlider.getWidth() / timeSlider.getMax();
+
+        if (Math.abs(value - timeSlider.getValue()) * pixelsPerValue < 1.0)
+            return;
+
+        timeSlider.setValue(value);
+        lastTimeSliderUpdateNanos = now;
+    }
+
+    /**
+     * Labels only change once per second.
+     */
+    private void updateTimeLabels(double seconds, double songSeconds) {
+        int passedSeconds = (int) seconds;
+        int remainingSeconds = (int) songSeconds - passedSeconds;
+
+        if (passedSeconds != shownSeconds) {
+            shownSeconds = passedSeconds;
+            timePassedLabel.setText(timeText(passedSeconds));
         }
 
-        timePassedLabel.setText(format((int) currentTime.toSeconds()));
-        timeRemainingLabel.setText(format((int) songTime.toSeconds() - (int) currentTime.toSeconds()));
+        if (remainingSeconds != shownRemainingSeconds) {
+            shownRemainingSeconds = remainingSeconds;
+            timeRemainingLabel.setText(timeText(remainingSeconds));
+        }
     }
 
-    private String format(int seconds) {
+    private static String timeText(int seconds) {
+        return seconds >= 0 && seconds < TIME_TEXTS.length ? TIME_TEXTS[seconds] : format(seconds);
+    }
+
+    private static String format(int seconds) {
         int min = seconds / 60;
         int sec = seconds % 60;
 
@@ -367,16 +522,45 @@ public final class MediaPaneController implements Initializable {
             return;
 
         mediaPlayer.currentTimeProperty().removeListener(timeChangeListener);
-        mediaPlayer.volumeProperty().unbind();
-        mediaPlayer.muteProperty().unbind();
-        mediaPlayer.setOnEndOfMedia(null);
-        mediaPlayer.stop();
-        mediaPlayer.dispose();
+
+        playerPool.release(song, mediaPlayer);
+        mediaPlayer = null;
+    }
+
+    /**
+     * Discards the warmed up player of the next song, if any, e.g. because the order of songs changed.
+     */
+    private void cancelPreload() {
+        if (preloadedSong == null)
+            return;
+
+        playerPool.discard(preloadedSong);
+        preloadedSong = null;
+    }
+
+    /**
+     * Logs how long songs took to start playing, by stage, and how many media players exist.
+     */
+    public void logPlaybackStats() {
+        log.info("Playback start latency:\n" + latencyMonitor);
+        log.info("Media players: " + playerPool.getStats());
     }
 
     public void onExit() {
+        latencyMonitor.cancel();
+
         releaseMediaPlayer();
+        cancelPreload();
+
+        logPlaybackStats();
+        Serializer.writeToFile(latencyMonitor, PLAYBACK_LATENCY_FILE);
 
-        executorService.shutdownNow();
+        playerPool.close();
+
+        frameScheduler.stopAll();
+
+        if (queue != null) {
+            queue.dispose();
+        }
     }
 }
@@ -12,7 +12,6 @@ import app.musicplayer.model.Playlist;
 import app.musicplayer.model.Song;
 import com.almasb.fxgl.dsl.FXGL;
 import com.almasb.fxgl.ui.FontType;
-import javafx.beans.binding.Bindings;
 import javafx.css.PseudoClass;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -49,6 +48,11 @@ public final class PlaylistViewController {
         @Override
         public void onClickPlaylistMenu(MouseEvent e, Playlist playlist) {
         }
+
+        @Override
+        public void onDropSongs(Playlist playlist, List<Song> songs) {
+            songs.forEach(playlist::addSong);
+        }
     };
 
     public void setPlaylist(Playlist playlist) {
@@ -65,7 +69,7 @@ public final class PlaylistViewController {
         switch (playlist.getType()) {
             case ALL_SONGS, USER_CREATED -> {
                 playlistTitleLabel.textProperty().bind(
-                        playlist.titleProperty().concat(Bindings.size(playlist.getSongs()).asString(" (%d)"))
+                        playlist.titleProperty().concat(playlist.numSongsProperty().asString(" (%d)"))
                 );
             }
 
@@ -107,7 +111,7 @@ public final class PlaylistViewController {
             if (event.getDragboard().hasContent(Config.DRAG_SONG_LIST)) {
                 List<Song> songs = FXGL.geto(VAR_DRAGGED_SONGS);
 
-                songs.forEach(playlist::addSong);
+                handler.onDropSongs(playlist, songs);
             }
 
             event.consume();
@@ -127,5 +131,7 @@ public final class PlaylistViewController {
 
     public interface PlaylistBoxHandler {
         void onClickPlaylistMenu(MouseEvent e, Playlist playlist);
+
+        void onDropSongs(Playlist playlist, List<Song> songs);
     }
 }
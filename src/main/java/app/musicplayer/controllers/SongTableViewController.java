@@ -19,6 +19,7 @@ import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.ObservableList;
 import javafx.css.PseudoClass;
+import javafx.event.EventType;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
@@ -40,7 +41,7 @@ import java.util.Map;
 import java.util.ResourceBundle;
 
 import static app.musicplayer.Config.VAR_DRAGGED_SONGS;
-import static app.musicplayer.events.UserDataEvent.PLAY_SONG;
+import static app.musicplayer.events.UserDataEvent.*;
 import static com.almasb.fxgl.dsl.FXGL.fire;
 import static com.almasb.fxgl.dsl.FXGL.set;
 
@@ -83,6 +84,7 @@ public final class SongTableViewController implements Initializable, ControlBoxC
 		lengthColumn.setCellValueFactory(new PropertyValueFactory<>("displayLength"));
 
 		initRowFactory();
+		initContextMenu();
 
 		// this filter allows each cell to be selected
 		// TODO: cannot be present by default or button import songs cannot be pressed
@@ -198,6 +200,24 @@ public final class SongTableViewController implements Initializable, ControlBoxC
 		});
 	}
 
+	private void initContextMenu() {
+		var playNextItem = new MenuItem("Play Next");
+		playNextItem.setOnAction(e -> fireWithSelectedSongs(PLAY_SONGS_NEXT));
+
+		var enqueueItem = new MenuItem("Add to Queue");
+		enqueueItem.setOnAction(e -> fireWithSelectedSongs(ENQUEUE_SONGS));
+
+		tableView.setContextMenu(new ContextMenu(playNextItem, enqueueItem));
+	}
+
+	private void fireWithSelectedSongs(EventType<UserDataEvent<?>> eventType) {
+		List<Song> songs = new ArrayList<>(tableView.getSelectionModel().getSelectedItems());
+
+		if (!songs.isEmpty()) {
+			fire(new UserDataEvent<>(eventType, new SongList(songs)));
+		}
+	}
+
 	public BooleanProperty allSongsPlaylistProperty() {
 		return isAllSongsPlaylist;
 	}
@@ -210,7 +230,7 @@ public final class SongTableViewController implements Initializable, ControlBoxC
 		if (selectedSong == null)
 			return;
 
-		fire(new UserDataEvent<>(PLAY_SONG, selectedSong));
+		fire(new UserDataEvent<>(PLAY_SONG, new PlaySongRequest(selectedSong, System.nanoTime())));
 	}
 
 	public void selectSong(Song selectedSong) {
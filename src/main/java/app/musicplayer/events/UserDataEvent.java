@@ -11,6 +11,8 @@ import app.musicplayer.model.Playlist;
 import app.musicplayer.model.Song;
 import javafx.event.EventType;
 
+import java.util.List;
+
 /**
  * @author Almas Baim (https://github.com/AlmasB)
  */
@@ -19,6 +21,9 @@ public class UserDataEvent<T> extends UserEvent {
     public static final EventType<UserDataEvent<?>> ANY = new EventType<>(UserEvent.ANY, "USER_DATA_EVENT_ANY");
 
     public static final EventType<UserDataEvent<?>> PLAY_SONG = new EventType<>(ANY, "PLAY_SONG_DATA_EVENT");
+    public static final EventType<UserDataEvent<?>> PLAY_SONGS_NEXT = new EventType<>(ANY, "PLAY_SONGS_NEXT_DATA_EVENT");
+    public static final EventType<UserDataEvent<?>> ENQUEUE_SONGS = new EventType<>(ANY, "ENQUEUE_SONGS_DATA_EVENT");
+    public static final EventType<UserDataEvent<?>> SONG_PLAYED = new EventType<>(ANY, "SONG_PLAYED_DATA_EVENT");
     public static final EventType<UserDataEvent<?>> LOAD_SONG_ARTWORK = new EventType<>(ANY, "LOAD_SONG_ARTWORK_DATA_EVENT");
     public static final EventType<UserDataEvent<?>> NAGIVATE_TO_SONG = new EventType<>(ANY, "NAGIVATE_TO_SONG_DATA_EVENT");
 
@@ -34,4 +39,14 @@ public class UserDataEvent<T> extends UserEvent {
     }
 
     public record PlaylistAndSong(Playlist playlist, Song song) {}
+
+    /**
+     * [requestNanos] is System.nanoTime() when the user asked to play [song].
+     */
+    public record PlaySongRequest(Song song, long requestNanos) {}
+
+    /**
+     * Data of PLAY_SONGS_NEXT and ENQUEUE_SONGS.
+     */
+    public record SongList(List<Song> songs) {}
 }
@@ -0,0 +1,141 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces items produced by background threads into batches and hands each batch to a consumer
+ * via the given executor, e.g. Platform::runLater.
+ * A batch is published when [maxBatchSize] items are pending or every [intervalMillis], whichever comes first.
+ * At most one batch is in flight at any time, so the consumer is never called concurrently and
+ * never more often than the executor can keep up with.
+ */
+public final class BatchPublisher<T> implements AutoCloseable {
+
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger(0);
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+
+    private final int maxBatchSize;
+    private final Executor executor;
+    private final Consumer<List<T>> consumer;
+
+    private final ScheduledExecutorService timer;
+
+    public BatchPublisher(int maxBatchSize, long intervalMillis, Executor executor, Consumer<List<T>> consumer) {
+        this.maxBatchSize = maxBatchSize;
+        this.executor = executor;
+        this.consumer = consumer;
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "BatchPublisher-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::requestFlush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Can be called from any thread.
+     */
+    public void offer(T item) {
+        queue.add(item);
+
+        if (queueSize.incrementAndGet() >= maxBatchSize) {
+            requestFlush();
+        }
+    }
+
+    private void requestFlush() {
+        if (queueSize.get() > 0) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (isFlushScheduled.compareAndSet(false, true)) {
+            executor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        var batch = drain();
+
+        isFlushScheduled.set(false);
+
+        // an item offered after the queue was drained may have missed both this flush and a concurrent close()
+        if (!queue.isEmpty()) {
+            scheduleFlush();
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    private List<T> drain() {
+        List<T> batch = new ArrayList<>(Math.max(0, queueSize.get()));
+
+        T item;
+        while ((item = queue.poll()) != null) {
+            batch.add(item);
+        }
+
+        queueSize.addAndGet(-batch.size());
+
+        return batch;
+    }
+
+    /**
+     * Stops the timer and publishes any remaining items.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+
+        try {
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // the final flush may coincide with an in-flight one, in which case the latter drains the queue
+        // or schedules another flush for items it missed
+        scheduleFlush();
+    }
+
+    /**
+     * Stops the timer and runs [onPublished] via the executor once all items offered before this call were published.
+     * A flush rescheduled by an in-flight one may run after [onPublished], so the remaining items are published
+     * directly before it. The executor must run tasks one at a time and in order, e.g. Platform::runLater.
+     */
+    public void close(Runnable onPublished) {
+        close();
+
+        executor.execute(() -> {
+            var batch = drain();
+
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+
+            onPublished.run();
+        });
+    }
+}
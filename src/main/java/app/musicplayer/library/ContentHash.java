@@ -0,0 +1,73 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A cheap content identity for audio files: file size combined with checksums of the first and last 64 KB.
+ * Two copies of the same file in different locations have the same content hash.
+ * 0 is reserved to mean "unknown".
+ */
+public final class ContentHash {
+
+    public static final long UNKNOWN = 0L;
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private ContentHash() { }
+
+    public static long of(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            var buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+
+            long headChecksum = checksum(channel, 0, buffer);
+            long tailChecksum = size > SAMPLE_SIZE
+                    ? checksum(channel, size - SAMPLE_SIZE, buffer)
+                    : headChecksum;
+
+            long hash = mix(size * 31 + headChecksum) ^ (tailChecksum << 32 | tailChecksum >>> 32);
+
+            return hash == UNKNOWN ? 1L : hash;
+        }
+    }
+
+    private static long checksum(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+
+        while (buffer.hasRemaining()) {
+            int numRead = channel.read(buffer, position + buffer.position());
+
+            if (numRead < 0)
+                break;
+        }
+
+        buffer.flip();
+
+        var crc = new CRC32C();
+        crc.update(buffer);
+
+        return crc.getValue();
+    }
+
+    /**
+     * Spreads the bits of [x] (splitmix64 finalizer).
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
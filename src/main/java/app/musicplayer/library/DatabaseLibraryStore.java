@@ -0,0 +1,563 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.SerializableLibrary;
+import app.musicplayer.model.serializable.SerializablePlaylist;
+import app.musicplayer.model.serializable.SerializableSong;
+import app.musicplayer.model.serializable.Serializer;
+import com.almasb.fxgl.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static app.musicplayer.model.Playlist.PlaylistType.ALL_SONGS;
+
+/**
+ * Stores the library in an embedded H2 database file, with indexed tables for songs, playlists and play history.
+ * Recorded changes are single-row writes, and queries such as most played run in the database.
+ * The library playlist is not stored song by song, its order is the position of each song in the songs table.
+ * All database access happens on a single background thread, which owns the connection.
+ */
+public final class DatabaseLibraryStore implements LibraryStore {
+
+    private static final Logger log = Logger.get(DatabaseLibraryStore.class);
+
+    /**
+     * H2 adds this to the database name.
+     */
+    public static final String FILE_SUFFIX = ".mv.db";
+
+    private static final List<String> SCHEMA = List.of(
+            """
+            CREATE TABLE IF NOT EXISTS library_info (
+                name VARCHAR(64) PRIMARY KEY,
+                info_value BIGINT NOT NULL
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS songs (
+                id INT PRIMARY KEY,
+                title VARCHAR NOT NULL,
+                length_seconds INT NOT NULL,
+                play_count INT NOT NULL,
+                play_date TIMESTAMP(9) NOT NULL,
+                file_path VARCHAR NOT NULL,
+                content_hash BIGINT NOT NULL,
+                library_position INT NOT NULL DEFAULT 0
+            )""",
+            // databases created by older versions keep the library playlist in id order until it is saved
+            "ALTER TABLE songs ADD COLUMN IF NOT EXISTS library_position INT NOT NULL DEFAULT 0",
+            "CREATE INDEX IF NOT EXISTS songs_by_play_count ON songs (play_count DESC)",
+            "CREATE INDEX IF NOT EXISTS songs_by_play_date ON songs (play_date DESC)",
+            """
+            CREATE TABLE IF NOT EXISTS playlists (
+                id INT PRIMARY KEY,
+                type VARCHAR(32) NOT NULL,
+                title VARCHAR NOT NULL
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS playlist_songs (
+                playlist_id INT NOT NULL,
+                position INT NOT NULL,
+                song_id INT NOT NULL,
+                PRIMARY KEY (playlist_id, position)
+            )""",
+            "CREATE INDEX IF NOT EXISTS playlist_songs_by_song ON playlist_songs (playlist_id, song_id)",
+            """
+            CREATE TABLE IF NOT EXISTS plays (
+                song_id INT NOT NULL,
+                played_at TIMESTAMP(9) NOT NULL
+            )""",
+            "CREATE INDEX IF NOT EXISTS plays_by_song ON plays (song_id)",
+            "CREATE INDEX IF NOT EXISTS plays_by_time ON plays (played_at)"
+    );
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "DatabaseLibraryStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Only accessed on the worker thread.
+     */
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /**
+     * Songs as they are in the database, by id, so that saves can skip unchanged songs.
+     * Only accessed on the worker thread. Cleared when a transaction fails, as it may then no longer match.
+     */
+    private final Map<Integer, StoredSong> storedSongs = new HashMap<>();
+
+    private DatabaseLibraryStore(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Opens the database [file], which must end with {@link #FILE_SUFFIX}, creating it if needed.
+     */
+    public static DatabaseLibraryStore open(Path file) throws IOException {
+        var name = file.toAbsolutePath().toString();
+
+        if (!name.endsWith(FILE_SUFFIX))
+            throw new IllegalArgumentException("Database file name must end with " + FILE_SUFFIX + ": " + file);
+
+        try {
+            var connection = DriverManager.getConnection("jdbc:h2:file:" + name.substring(0, name.length() - FILE_SUFFIX.length()));
+            connection.setAutoCommit(false);
+
+            try (var statement = connection.createStatement()) {
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+            }
+
+            connection.commit();
+
+            return new DatabaseLibraryStore(connection);
+
+        } catch (SQLException e) {
+            throw new IOException("Cannot open library database: " + file, e);
+        }
+    }
+
+    public static boolean isDatabaseFile(Path file) {
+        return file.getFileName().toString().endsWith(FILE_SUFFIX);
+    }
+
+    @Override
+    public Library load() throws IOException {
+        return Serializer.fromSerializable(query(this::readLibrary));
+    }
+
+    private SerializableLibrary readLibrary() throws SQLException {
+        List<SerializableSong> songs = new ArrayList<>();
+        List<Integer> songIds = new ArrayList<>();
+
+        try (var statement = connection.createStatement();
+             var rs = statement.executeQuery("SELECT id, title, length_seconds, play_count, play_date, file_path, content_hash, library_position FROM songs ORDER BY library_position, id")) {
+
+            storedSongs.clear();
+
+            while (rs.next()) {
+                var song = new SerializableSong(
+                        rs.getInt(1),
+                        rs.getString(2),
+                        rs.getInt(3),
+                        rs.getInt(4),
+                        rs.getObject(5, LocalDateTime.class),
+                        rs.getString(6),
+                        rs.getLong(7)
+                );
+
+                songs.add(song);
+                songIds.add(song.id());
+
+                storedSongs.put(song.id(), new StoredSong(song, rs.getInt(8)));
+            }
+        }
+
+        Map<Integer, List<Integer>> songIdsByPlaylist = new HashMap<>();
+
+        try (var statement = connection.createStatement();
+             var rs = statement.executeQuery("SELECT playlist_id, song_id FROM playlist_songs ORDER BY playlist_id, position")) {
+
+            while (rs.next()) {
+                songIdsByPlaylist.computeIfAbsent(rs.getInt(1), id -> new ArrayList<>()).add(rs.getInt(2));
+            }
+        }
+
+        List<SerializablePlaylist> playlists = new ArrayList<>();
+
+        try (var statement = connection.createStatement();
+             var rs = statement.executeQuery("SELECT id, type, title FROM playlists ORDER BY id")) {
+
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                var type = Playlist.PlaylistType.valueOf(rs.getString(2));
+
+                playlists.add(new SerializablePlaylist(
+                        id,
+                        type,
+                        rs.getString(3),
+                        type == ALL_SONGS ? songIds : songIdsByPlaylist.getOrDefault(id, List.of())
+                ));
+            }
+        }
+
+        int nextSongId = 0;
+
+        try (var statement = connection.createStatement();
+             var rs = statement.executeQuery("SELECT info_value FROM library_info WHERE name = 'nextSongId'")) {
+
+            if (rs.next()) {
+                nextSongId = rs.getInt(1);
+            }
+        }
+
+        return new SerializableLibrary(songs, playlists, nextSongId, 0L);
+    }
+
+    /**
+     * Captures [library] on the calling thread, then replaces all stored rows with it in a single transaction.
+     * Only songs that were added or changed since they were last read or written are upserted.
+     * Playlists are rewritten.
+     */
+    @Override
+    public void save(Library library) {
+        var snapshot = Serializer.toSerializable(library);
+
+        update("library", () -> writeLibrary(snapshot));
+    }
+
+    private void writeLibrary(SerializableLibrary library) throws SQLException {
+        Set<Integer> removedSongIds = new HashSet<>();
+
+        try (var statement = connection.createStatement();
+             var rs = statement.executeQuery("SELECT id FROM songs")) {
+
+            while (rs.next()) {
+                removedSongIds.add(rs.getInt(1));
+            }
+        }
+
+        var mergeSong = prepare("MERGE INTO songs (id, title, length_seconds, play_count, play_date, file_path, content_hash, library_position) KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+
+        int libraryPosition = 0;
+
+        // songs are in the order of the library playlist
+        for (SerializableSong song : library.songs()) {
+            removedSongIds.remove(song.id());
+
+            var storedSong = new StoredSong(song, libraryPosition++);
+
+            if (storedSong.equals(storedSongs.put(song.id(), storedSong)))
+                continue;
+
+            mergeSong.setInt(1, song.id());
+            mergeSong.setString(2, song.title());
+            mergeSong.setInt(3, song.lengthInSeconds());
+            mergeSong.setInt(4, song.playCount());
+            mergeSong.setObject(5, song.playDate());
+            mergeSong.setString(6, song.filePath());
+            mergeSong.setLong(7, song.contentHash());
+            mergeSong.setInt(8, storedSong.libraryPosition());
+            mergeSong.addBatch();
+        }
+
+        mergeSong.executeBatch();
+
+        var deleteSong = prepare("DELETE FROM songs WHERE id = ?");
+        var deletePlays = prepare("DELETE FROM plays WHERE song_id = ?");
+
+        for (int id : removedSongIds) {
+            storedSongs.remove(id);
+
+            deleteSong.setInt(1, id);
+            deleteSong.addBatch();
+
+            deletePlays.setInt(1, id);
+            deletePlays.addBatch();
+        }
+
+        deleteSong.executeBatch();
+        deletePlays.executeBatch();
+
+        // playlists are small compared to songs, so they are simply rewritten
+        try (var statement = connection.createStatement()) {
+            statement.execute("DELETE FROM playlist_songs");
+            statement.execute("DELETE FROM playlists");
+        }
+
+        var insertPlaylist = prepare("INSERT INTO playlists (id, type, title) VALUES (?, ?, ?)");
+        var insertPlaylistSong = prepare("INSERT INTO playlist_songs (playlist_id, position, song_id) VALUES (?, ?, ?)");
+
+        for (SerializablePlaylist playlist : library.playlists()) {
+            insertPlaylist.setInt(1, playlist.id());
+            insertPlaylist.setString(2, playlist.type().name());
+            insertPlaylist.setString(3, playlist.title());
+            insertPlaylist.addBatch();
+
+            if (playlist.type() == ALL_SONGS)
+                continue;
+
+            int position = 0;
+
+            for (int songId : playlist.songIDs()) {
+                insertPlaylistSong.setInt(1, playlist.id());
+                insertPlaylistSong.setInt(2, position++);
+                insertPlaylistSong.setInt(3, songId);
+                insertPlaylistSong.addBatch();
+            }
+        }
+
+        insertPlaylist.executeBatch();
+        insertPlaylistSong.executeBatch();
+
+        var mergeInfo = prepare("MERGE INTO library_info (name, info_value) KEY (name) VALUES ('nextSongId', ?)");
+        mergeInfo.setLong(1, library.nextSongId());
+        mergeInfo.executeUpdate();
+    }
+
+    @Override
+    public void recordPlay(Song song) {
+        int songId = song.getId();
+        int playCount = song.getPlayCount();
+        var playDate = song.getPlayDate();
+
+        update("play", () -> {
+            var updateSong = prepare("UPDATE songs SET play_count = ?, play_date = ? WHERE id = ?");
+            updateSong.setInt(1, playCount);
+            updateSong.setObject(2, playDate);
+            updateSong.setInt(3, songId);
+            updateSong.executeUpdate();
+
+            storedSongs.computeIfPresent(songId, (id, stored) -> stored.withPlay(playCount, playDate));
+
+            var insertPlay = prepare("INSERT INTO plays (song_id, played_at) VALUES (?, ?)");
+            insertPlay.setInt(1, songId);
+            insertPlay.setObject(2, playDate);
+            insertPlay.executeUpdate();
+        });
+    }
+
+    @Override
+    public void recordPlaylistCreated(Playlist playlist) {
+        int playlistId = playlist.getId();
+        var type = playlist.getType();
+        var title = playlist.getTitle();
+
+        update("playlist", () -> {
+            var mergePlaylist = prepare("MERGE INTO playlists (id, type, title) KEY (id) VALUES (?, ?, ?)");
+            mergePlaylist.setInt(1, playlistId);
+            mergePlaylist.setString(2, type.name());
+            mergePlaylist.setString(3, title);
+            mergePlaylist.executeUpdate();
+        });
+    }
+
+    @Override
+    public void recordPlaylistRenamed(Playlist playlist) {
+        int playlistId = playlist.getId();
+        var title = playlist.getTitle();
+
+        update("playlist title", () -> {
+            var updatePlaylist = prepare("UPDATE playlists SET title = ? WHERE id = ?");
+            updatePlaylist.setString(1, title);
+            updatePlaylist.setInt(2, playlistId);
+            updatePlaylist.executeUpdate();
+        });
+    }
+
+    @Override
+    public void recordPlaylistDeleted(Playlist playlist) {
+        int playlistId = playlist.getId();
+
+        update("playlist deletion", () -> {
+            var deleteSongs = prepare("DELETE FROM playlist_songs WHERE playlist_id = ?");
+            deleteSongs.setInt(1, playlistId);
+            deleteSongs.executeUpdate();
+
+            var deletePlaylist = prepare("DELETE FROM playlists WHERE id = ?");
+            deletePlaylist.setInt(1, playlistId);
+            deletePlaylist.executeUpdate();
+        });
+    }
+
+    @Override
+    public void recordSongAdded(Playlist playlist, Song song) {
+        if (playlist.getType() == ALL_SONGS)
+            return;
+
+        int playlistId = playlist.getId();
+        int songId = song.getId();
+
+        update("playlist song", () -> {
+            var insertSong = prepare("""
+                    INSERT INTO playlist_songs (playlist_id, position, song_id)
+                    SELECT ?, COALESCE(MAX(position) + 1, 0), ? FROM playlist_songs WHERE playlist_id = ?""");
+            insertSong.setInt(1, playlistId);
+            insertSong.setInt(2, songId);
+            insertSong.setInt(3, playlistId);
+            insertSong.executeUpdate();
+        });
+    }
+
+    @Override
+    public void recordSongRemoved(Playlist playlist, Song song) {
+        if (playlist.getType() == ALL_SONGS)
+            return;
+
+        int playlistId = playlist.getId();
+        int songId = song.getId();
+
+        update("playlist song removal", () -> {
+            var deleteSong = prepare("DELETE FROM playlist_songs WHERE playlist_id = ? AND song_id = ?");
+            deleteSong.setInt(1, playlistId);
+            deleteSong.setInt(2, songId);
+            deleteSong.executeUpdate();
+        });
+    }
+
+    /**
+     * Completes on the worker thread, after pending writes.
+     */
+    @Override
+    public CompletableFuture<List<Integer>> findMostPlayedSongIds(int limit) {
+        return findSongIds("SELECT id FROM songs WHERE play_count > 0 ORDER BY play_count DESC LIMIT ?", limit);
+    }
+
+    /**
+     * Completes on the worker thread, after pending writes.
+     */
+    @Override
+    public CompletableFuture<List<Integer>> findRecentlyPlayedSongIds(int limit) {
+        return findSongIds("SELECT id FROM songs WHERE play_count > 0 ORDER BY play_date DESC LIMIT ?", limit);
+    }
+
+    private CompletableFuture<List<Integer>> findSongIds(String sql, int limit) {
+        var result = new CompletableFuture<List<Integer>>();
+
+        worker.execute(() -> {
+            List<Integer> ids = new ArrayList<>();
+
+            try {
+                var findSongs = prepare(sql);
+                findSongs.setInt(1, limit);
+
+                try (var rs = findSongs.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt(1));
+                    }
+                }
+
+            } catch (SQLException e) {
+                log.warning("Failed to query library database", e);
+                ids = List.of();
+            }
+
+            result.complete(ids);
+        });
+
+        return result;
+    }
+
+    /**
+     * Only called on the worker thread. Statements are cached for the lifetime of the connection.
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        var statement = statements.get(sql);
+
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+
+        return statement;
+    }
+
+    /**
+     * Runs [action] on the worker thread and waits for its result.
+     */
+    private <T> T query(SqlQuery<T> action) throws IOException {
+        try {
+            return worker.submit(action::run).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while querying library database", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to query library database", e.getCause());
+        }
+    }
+
+    /**
+     * Runs [action] on the worker thread in its own transaction, without waiting for it.
+     * Failures are logged, the transaction is then rolled back.
+     */
+    private void update(String description, SqlUpdate action) {
+        worker.execute(() -> {
+            try {
+                action.run();
+                connection.commit();
+
+            } catch (SQLException e) {
+                log.warning("Failed to store " + description, e);
+
+                storedSongs.clear();
+
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    log.warning("Failed to roll back", rollbackError);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for pending writes and closes the database.
+     */
+    @Override
+    public void close() throws IOException {
+        worker.execute(() -> {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warning("Failed to close library database", e);
+            }
+        });
+
+        worker.shutdown();
+
+        try {
+            if (!worker.awaitTermination(30, TimeUnit.SECONDS)) {
+                throw new IOException("Timed out waiting for library database writes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record StoredSong(SerializableSong song, int libraryPosition) {
+
+        StoredSong withPlay(int playCount, LocalDateTime playDate) {
+            return new StoredSong(
+                    new SerializableSong(song.id(), song.title(), song.lengthInSeconds(), playCount, playDate, song.filePath(), song.contentHash()),
+                    libraryPosition
+            );
+        }
+    }
+
+    private interface SqlQuery<T> {
+        T run() throws SQLException;
+    }
+
+    private interface SqlUpdate {
+        void run() throws SQLException;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Determines the length of an audio file by reading only its headers:
+ * the RIFF chunks of WAV, the Xing/Info, VBRI or first frame header of MP3
+ * and the mvhd atom of MP4/M4A/M4V.
+ * Tag frames and embedded artwork are never read.
+ * Callers should fall back to a full tag parse if the probe fails.
+ */
+public final class DurationProbe {
+
+    public static final int UNKNOWN = -1;
+
+    private static final int WINDOW_SIZE = 4096;
+
+    /**
+     * Maximum number of top-level MP4 atoms or WAV chunks to visit before giving up.
+     */
+    private static final int MAX_CHUNKS = 64;
+
+    private static final LongAdder bytesRead = new LongAdder();
+
+    private DurationProbe() { }
+
+    /**
+     * @return total number of bytes read by all probes so far
+     */
+    public static long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return length of [file] in seconds or {@link #UNKNOWN} if it cannot be determined from headers
+     */
+    public static int probe(Path file) {
+        var fileName = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        var extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            double seconds = switch (extension) {
+                case "wav" -> probeWav(channel);
+                case "mp3" -> probeMp3(channel);
+                case "mp4", "m4a", "m4v" -> probeMp4(channel);
+                default -> UNKNOWN;
+            };
+
+            return seconds < 0 ? UNKNOWN : (int) Math.round(seconds);
+
+        } catch (IOException | RuntimeException e) {
+            return UNKNOWN;
+        }
+    }
+
+    private static double probeWav(FileChannel channel) throws IOException {
+        var header = read(channel, 0, 12).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (header.remaining() < 12 || !fourCC(header, 0).equals("RIFF") || !fourCC(header, 8).equals("WAVE"))
+            return UNKNOWN;
+
+        long fileSize = channel.size();
+        long position = 12;
+        long byteRate = 0;
+
+        for (int i = 0; i < MAX_CHUNKS && position + 8 <= fileSize; i++) {
+            var chunk = read(channel, position, 20).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (chunk.remaining() < 8)
+                return UNKNOWN;
+
+            var id = fourCC(chunk, 0);
+            long size = Integer.toUnsignedLong(chunk.getInt(4));
+
+            // fmt chunk: format (2), channels (2), sample rate (4), byte rate (4), ...
+            if (id.equals("fmt ") && chunk.remaining() >= 20) {
+                byteRate = Integer.toUnsignedLong(chunk.getInt(16));
+            }
+
+            if (id.equals("data")) {
+                if (byteRate == 0)
+                    return UNKNOWN;
+
+                // streamed files may have a placeholder size
+                long dataSize = Math.min(size, fileSize - position - 8);
+
+                return (double) dataSize / byteRate;
+            }
+
+            // chunks are word aligned
+            position += 8 + size + (size & 1);
+        }
+
+        return UNKNOWN;
+    }
+
+    private static final int[][] MP3_BITRATES = {
+            // MPEG 1: layer I, II, III
+            { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+            { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+            // MPEG 2 and 2.5: layer I, II and III
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+            { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 }
+    };
+
+    private static final int[][] MP3_SAMPLE_RATES = {
+            { 44100, 48000, 32000 }, // MPEG 1
+            { 22050, 24000, 16000 }, // MPEG 2
+            { 11025, 12000, 8000 }   // MPEG 2.5
+    };
+
+    private static double probeMp3(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long audioStart = 0;
+
+        var id3 = read(channel, 0, 10);
+
+        if (id3.remaining() == 10 && id3.get(0) == 'I' && id3.get(1) == 'D' && id3.get(2) == '3') {
+            // tag size is a synchsafe integer and excludes the 10 byte header (and footer, if present)
+            int tagSize = (id3.get(6) & 0x7F) << 21 | (id3.get(7) & 0x7F) << 14 | (id3.get(8) & 0x7F) << 7 | (id3.get(9) & 0x7F);
+            boolean hasFooter = (id3.get(5) & 0x10) != 0;
+
+            audioStart = 10 + tagSize + (hasFooter ? 10 : 0);
+        }
+
+        var window = read(channel, audioStart, WINDOW_SIZE);
+
+        for (int offset = 0; offset + 4 <= window.limit(); offset++) {
+            var frame = Mp3FrameHeader.parse(window.getInt(offset));
+
+            if (frame == null)
+                continue;
+
+            // guard against false sync: if the next frame header is within the window, it must be valid too
+            int nextOffset = offset + frame.frameLength();
+            if (nextOffset + 4 <= window.limit() && Mp3FrameHeader.parse(window.getInt(nextOffset)) == null)
+                continue;
+
+            double vbrSeconds = probeVbrHeader(window, offset, frame);
+            if (vbrSeconds >= 0)
+                return vbrSeconds;
+
+            // constant bitrate
+            long audioSize = fileSize - audioStart - offset;
+
+            if (fileSize >= 128 && fourCC(read(channel, fileSize - 128, 4), 0).startsWith("TAG")) {
+                audioSize -= 128;
+            }
+
+            return audioSize * 8.0 / (frame.bitrate() * 1000.0);
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Xing/Info and VBRI headers are stored in the first frame and contain the total number of frames.
+     */
+    private static double probeVbrHeader(ByteBuffer window, int frameOffset, Mp3FrameHeader frame) {
+        int xingOffset = frameOffset + 4 + frame.sideInfoSize();
+
+        if (xingOffset + 12 <= window.limit()) {
+            var tag = fourCC(window, xingOffset);
+
+            if (tag.equals("Xing") || tag.equals("Info")) {
+                int flags = window.getInt(xingOffset + 4);
+
+                if ((flags & 0x1) != 0) {
+                    long numFrames = Integer.toUnsignedLong(window.getInt(xingOffset + 8));
+                    return numFrames * frame.samplesPerFrame() / (double) frame.sampleRate();
+                }
+
+                return UNKNOWN;
+            }
+        }
+
+        int vbriOffset = frameOffset + 4 + 32;
+
+        if (vbriOffset + 18 <= window.limit() && fourCC(window, vbriOffset).equals("VBRI")) {
+            long numFrames = Integer.toUnsignedLong(window.getInt(vbriOffset + 14));
+            return numFrames * frame.samplesPerFrame() / (double) frame.sampleRate();
+        }
+
+        return UNKNOWN;
+    }
+
+    private record Mp3FrameHeader(
+            int version,
+            int layer,
+            int bitrate,
+            int sampleRate,
+            boolean isPadded,
+            boolean isMono
+    ) {
+
+        /**
+         * @return parsed header or null if [header] is not a valid MPEG audio frame header
+         */
+        static Mp3FrameHeader parse(int header) {
+            if ((header & 0xFFE00000) != 0xFFE00000)
+                return null;
+
+            // 0 = MPEG 2.5, 2 = MPEG 2, 3 = MPEG 1
+            int versionBits = (header >>> 19) & 0x3;
+            // 1 = layer III, 2 = layer II, 3 = layer I
+            int layerBits = (header >>> 17) & 0x3;
+            int bitrateIndex = (header >>> 12) & 0xF;
+            int sampleRateIndex = (header >>> 10) & 0x3;
+
+            if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3)
+                return null;
+
+            int version = versionBits == 3 ? 1 : (versionBits == 2 ? 2 : 25);
+            int layer = 4 - layerBits;
+
+            int bitrate = version == 1
+                    ? MP3_BITRATES[layer - 1][bitrateIndex]
+                    : MP3_BITRATES[layer == 1 ? 3 : 4][bitrateIndex];
+
+            int sampleRate = MP3_SAMPLE_RATES[version == 1 ? 0 : (version == 2 ? 1 : 2)][sampleRateIndex];
+
+            boolean isPadded = ((header >>> 9) & 0x1) != 0;
+            boolean isMono = ((header >>> 6) & 0x3) == 3;
+
+            return new Mp3FrameHeader(version, layer, bitrate, sampleRate, isPadded, isMono);
+        }
+
+        int samplesPerFrame() {
+            if (layer == 1)
+                return 384;
+
+            if (layer == 2 || version == 1)
+                return 1152;
+
+            return 576;
+        }
+
+        int sideInfoSize() {
+            if (version == 1)
+                return isMono ? 17 : 32;
+
+            return isMono ? 9 : 17;
+        }
+
+        int frameLength() {
+            int padding = isPadded ? 1 : 0;
+
+            if (layer == 1)
+                return (12 * bitrate * 1000 / sampleRate + padding) * 4;
+
+            return samplesPerFrame() / 8 * bitrate * 1000 / sampleRate + padding;
+        }
+    }
+
+    private static double probeMp4(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+
+        var moov = findAtom(channel, 0, fileSize, "moov");
+        if (moov == null)
+            return UNKNOWN;
+
+        var mvhd = findAtom(channel, moov.contentStart(), moov.end(), "mvhd");
+        if (mvhd == null)
+            return UNKNOWN;
+
+        var content = read(channel, mvhd.contentStart(), 32);
+
+        if (content.remaining() < 20)
+            return UNKNOWN;
+
+        int version = content.get(0);
+
+        long timescale;
+        long duration;
+
+        if (version == 1) {
+            if (content.remaining() < 32)
+                return UNKNOWN;
+
+            timescale = Integer.toUnsignedLong(content.getInt(20));
+            duration = content.getLong(24);
+        } else {
+            timescale = Integer.toUnsignedLong(content.getInt(12));
+            duration = Integer.toUnsignedLong(content.getInt(16));
+        }
+
+        if (timescale == 0)
+            return UNKNOWN;
+
+        return (double) duration / timescale;
+    }
+
+    private record Atom(long contentStart, long end) { }
+
+    /**
+     * Visits sibling atoms in [start, end) by their headers only.
+     */
+    private static Atom findAtom(FileChannel channel, long start, long end, String type) throws IOException {
+        long position = start;
+
+        for (int i = 0; i < MAX_CHUNKS && position + 8 <= end; i++) {
+            var header = read(channel, position, 16);
+
+            if (header.remaining() < 8)
+                return null;
+
+            long size = Integer.toUnsignedLong(header.getInt(0));
+            var atomType = fourCC(header, 4);
+            long headerSize = 8;
+
+            if (size == 1) {
+                if (header.remaining() < 16)
+                    return null;
+
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+
+            if (size < headerSize)
+                return null;
+
+            if (atomType.equals(type))
+                return new Atom(position + headerSize, Math.min(position + size, end));
+
+            position += size;
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads at most [length] bytes at [position].
+     *
+     * @return big endian buffer ready for absolute reads, limit is the number of bytes read
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            int numRead = channel.read(buffer, position + buffer.position());
+
+            if (numRead < 0)
+                break;
+        }
+
+        bytesRead.add(buffer.position());
+
+        return buffer.flip();
+    }
+
+    private static String fourCC(ByteBuffer buffer, int offset) {
+        if (offset + 4 > buffer.limit())
+            return "";
+
+        byte[] bytes = new byte[4];
+        buffer.get(offset, bytes);
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
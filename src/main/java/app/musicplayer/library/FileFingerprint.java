@@ -0,0 +1,31 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Cheap identity of a file's content, obtained from file system metadata only.
+ * If the fingerprint of a file has not changed, its tags do not need to be read again.
+ */
+public record FileFingerprint(
+        long size,
+        long lastModified
+) {
+
+    public static FileFingerprint of(Path file) throws IOException {
+        return of(Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    public static FileFingerprint of(BasicFileAttributes attributes) {
+        return new FileFingerprint(attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+}
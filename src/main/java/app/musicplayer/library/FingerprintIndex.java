@@ -0,0 +1,72 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Keeps a fingerprint for each imported file and the set of imported root directories.
+ * Paths are stored in their absolute normalized string form.
+ * This class is thread-safe.
+ */
+public final class FingerprintIndex {
+
+    private final Set<String> roots = new LinkedHashSet<>();
+    private final Map<String, FileFingerprint> fingerprints = new HashMap<>();
+
+    public synchronized void addRoot(Path directory) {
+        roots.add(key(directory));
+    }
+
+    public synchronized List<Path> getRoots() {
+        return roots.stream()
+                .map(Path::of)
+                .toList();
+    }
+
+    public synchronized Optional<FileFingerprint> get(Path file) {
+        return Optional.ofNullable(fingerprints.get(key(file)));
+    }
+
+    public synchronized void put(Path file, FileFingerprint fingerprint) {
+        fingerprints.put(key(file), fingerprint);
+    }
+
+    public synchronized void remove(Path file) {
+        fingerprints.remove(key(file));
+    }
+
+    /**
+     * @return all indexed files located in [directory] or its subdirectories
+     */
+    public synchronized List<Path> findFilesUnder(Path directory) {
+        var dir = Path.of(key(directory));
+
+        return fingerprints.keySet()
+                .stream()
+                .map(Path::of)
+                .filter(file -> file.startsWith(dir))
+                .toList();
+    }
+
+    public synchronized int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * @return a copy of all entries, keyed by absolute normalized path
+     */
+    public synchronized Map<String, FileFingerprint> toMap() {
+        return new HashMap<>(fingerprints);
+    }
+
+    public static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Song;
+import com.almasb.fxgl.logging.Logger;
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+import static app.musicplayer.Config.SUPPORTED_FILE_EXTENSIONS;
+
+/**
+ * Reads song data from audio files using a bounded pool of worker threads.
+ * The resulting songs are always in the same order as the given files,
+ * regardless of the order in which workers finish.
+ * A file that cannot be read is reported and skipped, the rest of the batch is unaffected.
+ */
+public final class ImportEngine {
+
+    private static final Logger log = Logger.get(ImportEngine.class);
+
+    private final int concurrency;
+
+    /**
+     * If true, a {@link ContentHash} is computed for each file, so that copies of the same file
+     * in different locations can be detected as duplicates.
+     */
+    private final boolean isContentHashEnabled;
+
+    public ImportEngine(int concurrency, boolean isContentHashEnabled) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be >= 1, given: " + concurrency);
+
+        this.concurrency = concurrency;
+        this.isContentHashEnabled = isContentHashEnabled;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isContentHashEnabled() {
+        return isContentHashEnabled;
+    }
+
+    /**
+     * @return all regular files of supported type in [directory] and its subdirectories, in walk order
+     */
+    public List<Path> findSupportedFiles(Path directory) throws IOException {
+        try (Stream<Path> filesStream = Files.walk(directory)) {
+            return filesStream
+                    .filter(file -> Files.isRegularFile(file) && isSupportedFileType(file))
+                    .toList();
+        }
+    }
+
+    /**
+     * Loads song data for each file in [files] in parallel.
+     * Song ids are taken from [idAllocator] in file order (failed files do not consume an id).
+     * Loaded songs are passed to {@link ImportListener#onLoaded(Song)} in file order as soon as
+     * all preceding files have been processed, so callers can consume results while the import runs.
+     *
+     * @return loaded songs in file order
+     */
+    public List<Song> loadSongs(List<Path> files, IntSupplier idAllocator, ImportListener listener) throws InterruptedException {
+        int numFiles = files.size();
+
+        var emitter = new OrderedEmitter(numFiles, idAllocator, listener);
+        var numProcessed = new AtomicInteger(0);
+
+        var threadCount = new AtomicInteger(0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(numFiles, 1)), r -> {
+            var thread = new Thread(r, "ImportEngine-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(numFiles);
+
+            for (int i = 0; i < numFiles; i++) {
+                final int index = i;
+                final Path file = files.get(i);
+
+                futures.add(pool.submit(() -> {
+                    Song song = null;
+
+                    try {
+                        // id is a placeholder here, real ids are assigned in file order by the emitter
+                        song = loadSongData(0, file);
+
+                        if (isContentHashEnabled) {
+                            song.setContentHash(ContentHash.of(file));
+                        }
+                    } catch (Exception e) {
+                        log.warning("Failed to load song data: " + file, e);
+                        listener.onFailed(file, e);
+                    }
+
+                    emitter.complete(index, song);
+
+                    listener.onProgress(file, numProcessed.incrementAndGet(), numFiles);
+                }));
+            }
+
+            for (var future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // each job catches its own exceptions, so this should not happen
+                    log.warning("Import job failed unexpectedly", e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return emitter.getSongs();
+    }
+
+    /**
+     * Reads a single audio file and constructs a song from it.
+     * The length is read from audio headers only, the full tag parse is a fallback.
+     */
+    public static Song loadSongData(int id, Path file) throws Exception {
+        int lengthSeconds = DurationProbe.probe(file);
+
+        if (lengthSeconds == DurationProbe.UNKNOWN) {
+            lengthSeconds = readTrackLength(file);
+        }
+
+        String fileName = file.getFileName().toString();
+        String title = fileName.substring(0, fileName.lastIndexOf('.'));
+
+        return new Song(
+                id,
+                title,
+                lengthSeconds,
+                0,
+                LocalDateTime.now(),
+                file
+        );
+    }
+
+    /**
+     * Reads the track length using a full tag parse.
+     */
+    public static int readTrackLength(Path file) throws Exception {
+        AudioFile audioFile = AudioFileIO.read(file.toFile());
+
+        if (audioFile != null && audioFile.getAudioHeader() != null)
+            return audioFile.getAudioHeader().getTrackLength();
+
+        return 0;
+    }
+
+    public static boolean isSupportedFileType(Path file) {
+        var fileName = file.toString();
+
+        return SUPPORTED_FILE_EXTENSIONS.stream()
+                .anyMatch(fileName::endsWith);
+    }
+
+    /**
+     * Callbacks are invoked from worker threads.
+     */
+    public interface ImportListener {
+
+        /**
+         * Called once per file after it has been processed, successfully or not.
+         */
+        void onProgress(Path file, int numProcessed, int numFiles);
+
+        /**
+         * Called in file order for each successfully loaded song.
+         */
+        default void onLoaded(Song song) { }
+
+        default void onFailed(Path file, Exception error) { }
+    }
+
+    /**
+     * Collects results that complete in any order and releases them in file order.
+     */
+    private static final class OrderedEmitter {
+
+        private final Song[] results;
+        private final boolean[] isDone;
+        private final List<Song> songs;
+        private final IntSupplier idAllocator;
+        private final ImportListener listener;
+
+        private int nextIndex = 0;
+
+        private OrderedEmitter(int numFiles, IntSupplier idAllocator, ImportListener listener) {
+            this.results = new Song[numFiles];
+            this.isDone = new boolean[numFiles];
+            this.songs = new ArrayList<>(numFiles);
+            this.idAllocator = idAllocator;
+            this.listener = listener;
+        }
+
+        /**
+         * @param song loaded song or null if the file at [index] failed to load
+         */
+        private synchronized void complete(int index, Song song) {
+            results[index] = song;
+            isDone[index] = true;
+
+            while (nextIndex < results.length && isDone[nextIndex]) {
+                var nextSong = results[nextIndex];
+                results[nextIndex] = null;
+
+                if (nextSong != null) {
+                    nextSong.setId(idAllocator.getAsInt());
+                    songs.add(nextSong);
+                    listener.onLoaded(nextSong);
+                }
+
+                nextIndex++;
+            }
+        }
+
+        private synchronized List<Song> getSongs() {
+            return songs;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.Serializer;
+import com.almasb.fxgl.logging.Logger;
+import javafx.collections.ListChangeListener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import static app.musicplayer.Config.*;
+
+/**
+ * Stores the library in a JSON file. Individual changes are appended to a {@link LibraryJournal},
+ * which is folded into the file in the background by a {@link LibraryCompactor}.
+ * If the journal cannot be opened, the whole file is rewritten on close.
+ * Changes recorded while the library is being loaded are journaled once it has loaded.
+ */
+public final class JsonLibraryStore implements LibraryStore {
+
+    private static final Logger log = Logger.get(JsonLibraryStore.class);
+
+    private static final Consumer<Library> NO_UNDO = library -> { };
+
+    private final Path libraryFile;
+    private final Path journalFile;
+    private final boolean isPretty;
+    private final long compactionThreshold;
+
+    private Library library = null;
+
+    private LibraryJournal journal = null;
+    private LibraryCompactor compactor = null;
+
+    /**
+     * True if the library has changes that are neither journaled nor in the last snapshot, e.g. imported songs.
+     */
+    private boolean isSnapshotStale = false;
+
+    /**
+     * Changes recorded before the library was attached, in order.
+     * They were made before the journal was replayed, which would overwrite them, e.g. reset play counts,
+     * so attach() undoes them, replays the journal and then redoes and records them.
+     */
+    private final List<PendingChange> changesWhileLoading = new ArrayList<>();
+
+    /**
+     * @param compactionThreshold number of journal records after which the journal is folded into [libraryFile]
+     */
+    public JsonLibraryStore(Path libraryFile, Path journalFile, boolean isPretty, long compactionThreshold) {
+        this.libraryFile = libraryFile;
+        this.journalFile = journalFile;
+        this.isPretty = isPretty;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    @Override
+    public Library load() throws IOException {
+        var result = Files.exists(libraryFile)
+                ? Serializer.fromSerializable(Serializer.readLibraryFromFile(libraryFile))
+                : new Library();
+
+        attach(result);
+
+        return result;
+    }
+
+    /**
+     * Shows the library after its first page has been read, see {@link LibraryLoader}.
+     * The journal is replayed once all songs have been added, right before {@link LibraryLoader.Listener#onLoaded(Library)}.
+     */
+    @Override
+    public void load(LibraryLoader.Listener listener, Executor executor) throws IOException {
+        if (!Files.exists(libraryFile)) {
+            LibraryStore.super.load(listener, executor);
+            return;
+        }
+
+        var loader = new LibraryLoader(LIBRARY_FIRST_PAGE_SIZE, IMPORT_BATCH_SIZE, IMPORT_BATCH_INTERVAL_MILLIS, executor);
+
+        loader.load(libraryFile, new LibraryLoader.Listener() {
+            @Override
+            public void onFirstPage(Library library) {
+                listener.onFirstPage(library);
+            }
+
+            @Override
+            public void onLoaded(Library library) {
+                attach(library);
+                listener.onLoaded(library);
+            }
+        });
+    }
+
+    /**
+     * Replays the journal onto [library] and opens it for appending.
+     */
+    private void attach(Library library) {
+        this.library = library;
+
+        // in reverse, so that each change is undone on the state it was made on
+        for (int i = changesWhileLoading.size() - 1; i >= 0; i--) {
+            changesWhileLoading.get(i).undo().accept(library);
+        }
+
+        try {
+            journal = LibraryJournal.open(journalFile, library);
+
+            compactor = new LibraryCompactor(
+                    journal,
+                    () -> {
+                        isSnapshotStale = false;
+                        return Serializer.snapshot(this.library);
+                    },
+                    snapshot -> Serializer.writeToFile(snapshot, libraryFile, isPretty),
+                    compactionThreshold
+            );
+
+        } catch (Exception e) {
+            log.warning("Cannot open library journal, the library is saved in full on exit", e);
+        }
+
+        for (PendingChange change : changesWhileLoading) {
+            change.redo().accept(library);
+            record(change.action());
+        }
+
+        changesWhileLoading.clear();
+
+        library.getSongs().addListener((ListChangeListener<Song>) change -> isSnapshotStale = true);
+    }
+
+    /**
+     * Writes a new snapshot in the background. Without a journal, [library] is written on close.
+     */
+    @Override
+    public void save(Library library) {
+        if (this.library != library) {
+            this.library = library;
+
+            library.getSongs().addListener((ListChangeListener<Song>) change -> isSnapshotStale = true);
+        }
+
+        isSnapshotStale = true;
+
+        if (compactor != null) {
+            compactor.requestCompaction();
+        }
+    }
+
+    @Override
+    public void recordPlay(Song song) {
+        var playDate = song.getPlayDate();
+
+        record(
+                journal -> journal.recordPlay(song),
+                library -> song.setPlayCount(song.getPlayCount() - 1),
+                library -> {
+                    song.setPlayCount(song.getPlayCount() + 1);
+                    song.setPlayDate(playDate);
+                }
+        );
+    }
+
+    /**
+     * A playlist created while loading is removed before replaying the journal,
+     * as the journal may create another playlist with the same id.
+     */
+    @Override
+    public void recordPlaylistCreated(Playlist playlist) {
+        record(journal -> journal.recordPlaylistCreated(playlist), library -> library.removePlaylist(playlist), library -> library.restorePlaylist(playlist));
+    }
+
+    @Override
+    public void recordPlaylistRenamed(Playlist playlist) {
+        var title = playlist.getTitle();
+
+        record(journal -> journal.recordPlaylistRenamed(playlist), NO_UNDO, library -> playlist.setTitle(title));
+    }
+
+    @Override
+    public void recordPlaylistDeleted(Playlist playlist) {
+        record(journal -> journal.recordPlaylistDeleted(playlist), NO_UNDO, library -> library.removePlaylist(playlist));
+    }
+
+    @Override
+    public void recordSongAdded(Playlist playlist, Song song) {
+        record(journal -> journal.recordSongAdded(playlist, song), NO_UNDO, library -> playlist.addSong(song));
+    }
+
+    @Override
+    public void recordSongRemoved(Playlist playlist, Song song) {
+        record(journal -> journal.recordSongRemoved(playlist, song), NO_UNDO, library -> playlist.removeSong(song.getId()));
+    }
+
+    /**
+     * @param undo reverts the change before the journal is replayed, needed if replaying could conflict with it
+     * @param redo makes the change again after the journal was replayed
+     */
+    private void record(Consumer<LibraryJournal> action, Consumer<Library> undo, Consumer<Library> redo) {
+        if (library == null) {
+            changesWhileLoading.add(new PendingChange(action, undo, redo));
+            return;
+        }
+
+        record(action);
+    }
+
+    private void record(Consumer<LibraryJournal> action) {
+        if (journal == null)
+            return;
+
+        action.accept(journal);
+        compactor.compactIfJournalFull();
+    }
+
+    /**
+     * The JSON file cannot be queried, so this scans all songs in memory and completes right away.
+     */
+    @Override
+    public CompletableFuture<List<Integer>> findMostPlayedSongIds(int limit) {
+        return CompletableFuture.completedFuture(findPlayedSongIds(Comparator.comparingInt(Song::getPlayCount).reversed(), limit));
+    }
+
+    /**
+     * The JSON file cannot be queried, so this scans all songs in memory and completes right away.
+     */
+    @Override
+    public CompletableFuture<List<Integer>> findRecentlyPlayedSongIds(int limit) {
+        return CompletableFuture.completedFuture(findPlayedSongIds(Comparator.comparing(Song::getPlayDate).reversed(), limit));
+    }
+
+    private List<Integer> findPlayedSongIds(Comparator<Song> order, int limit) {
+        if (library == null)
+            return List.of();
+
+        return library.getSongs()
+                .stream()
+                .filter(song -> song.getPlayCount() > 0)
+                .sorted(order)
+                .limit(limit)
+                .map(Song::getId)
+                .toList();
+    }
+
+    private record PendingChange(Consumer<LibraryJournal> action, Consumer<Library> undo, Consumer<Library> redo) { }
+
+    /**
+     * Journaled changes are already persisted, so the library is only written if it has other changes.
+     * Changes recorded while the library is still being loaded are discarded, as the incomplete library is not written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal == null) {
+            if (library != null) {
+                Serializer.writeToFile(library, libraryFile, isPretty);
+            }
+
+            return;
+        }
+
+        if (isSnapshotStale) {
+            compactor.requestCompaction();
+        }
+
+        compactor.close();
+        journal.close();
+    }
+}
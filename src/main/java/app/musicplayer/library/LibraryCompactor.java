@@ -0,0 +1,119 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.serializable.LibrarySnapshot;
+import com.almasb.fxgl.logging.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Folds the {@link LibraryJournal} into the library file: writes a new library snapshot
+ * on a background thread and then drops the journal records it reflects.
+ * Snapshots are captured on the calling thread, which only references the songs, and written on the background thread.
+ * If a newer snapshot is requested before an older one was written, only the newer one is written.
+ */
+public final class LibraryCompactor implements AutoCloseable {
+
+    private static final Logger log = Logger.get(LibraryCompactor.class);
+
+    private final LibraryJournal journal;
+    private final Supplier<LibrarySnapshot> snapshotSupplier;
+    private final SnapshotWriter snapshotWriter;
+    private final long maxJournalSize;
+
+    private final AtomicReference<LibrarySnapshot> pendingSnapshot = new AtomicReference<>(null);
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "LibraryCompactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param snapshotSupplier called on the thread that requests compaction
+     * @param snapshotWriter called on the background thread
+     * @param maxJournalSize number of journal records that triggers compaction in {@link #compactIfJournalFull()}
+     */
+    public LibraryCompactor(LibraryJournal journal, Supplier<LibrarySnapshot> snapshotSupplier, SnapshotWriter snapshotWriter, long maxJournalSize) {
+        this.journal = journal;
+        this.snapshotSupplier = snapshotSupplier;
+        this.snapshotWriter = snapshotWriter;
+        this.maxJournalSize = maxJournalSize;
+    }
+
+    /**
+     * Must be called on the thread that modifies the library.
+     */
+    public void requestCompaction() {
+        pendingSnapshot.set(snapshotSupplier.get());
+
+        worker.execute(this::compactPending);
+    }
+
+    /**
+     * Must be called on the thread that modifies the library.
+     * Requests compaction if the journal has grown large and no compaction is pending.
+     */
+    public void compactIfJournalFull() {
+        if (journal.size() >= maxJournalSize && pendingSnapshot.get() == null) {
+            requestCompaction();
+        }
+    }
+
+    private void compactPending() {
+        var snapshot = pendingSnapshot.getAndSet(null);
+
+        // already written by an earlier run
+        if (snapshot == null)
+            return;
+
+        long start = System.nanoTime();
+
+        try {
+            snapshotWriter.write(snapshot);
+
+            journal.truncateUpTo(snapshot.journalSequence());
+
+            log.info(String.format("Compacted library: %d songs in %.2f s", snapshot.songs().size(), (System.nanoTime() - start) / 1_000_000_000.0));
+
+        } catch (Exception e) {
+            // the journal is kept, so nothing is lost
+            log.warning("Failed to compact library journal", e);
+        }
+    }
+
+    /**
+     * Waits for pending compactions to finish.
+     */
+    @Override
+    public void close() {
+        worker.shutdown();
+
+        try {
+            if (!worker.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warning("Timed out waiting for library compaction");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public interface SnapshotWriter {
+
+        /**
+         * Must throw if the snapshot could not be written completely.
+         */
+        void write(LibrarySnapshot snapshot) throws IOException;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.Serializer;
+import com.almasb.fxgl.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only log of library changes made since the last library snapshot: song plays and playlist edits.
+ * Each change is a fixed-size record with a sequence number, so recording one is a single small write.
+ * The snapshot stores the sequence number of the last record it reflects (see {@link Library#getJournalSequence()}),
+ * so on startup only newer records are replayed on top of it.
+ * Records store resulting values rather than deltas (e.g. the new play count), so replaying a record twice is harmless.
+ *
+ * Records survive a crash of the application as soon as they are written.
+ * They are forced to the storage device on {@link #sync()} and {@link #close()}.
+ *
+ * <pre>
+ * record (96 bytes, big endian):
+ *   0  sequence (long)
+ *   8  CRC32C of the record with this field set to 0 (int)
+ *  12  type (byte), 3 bytes reserved
+ *  16  playlist id (int)
+ *  20  song id (int)
+ *  24  play date epoch seconds UTC (long)
+ *  32  play date nanos (int)
+ *  36  play count (int)
+ *  40  title length in bytes (byte)
+ *  41  title, UTF-8 (55 bytes)
+ * </pre>
+ */
+public final class LibraryJournal implements AutoCloseable {
+
+    private static final Logger log = Logger.get(LibraryJournal.class);
+
+    public static final int RECORD_SIZE = 96;
+
+    /**
+     * Longest playlist title that can be recorded, in UTF-8 bytes.
+     * This is more than MAX_PLAYLIST_TITLE_LENGTH characters need.
+     */
+    public static final int MAX_TITLE_BYTES = RECORD_SIZE - 41;
+
+    private static final int CRC_OFFSET = 8;
+
+    private static final int READ_BUFFER_RECORDS = 512;
+
+    public enum RecordType {
+        PLAY, PLAYLIST_CREATE, PLAYLIST_RENAME, PLAYLIST_DELETE, PLAYLIST_ADD_SONG, PLAYLIST_REMOVE_SONG
+    }
+
+    private final Path file;
+    private final Library library;
+
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+
+    private FileChannel channel;
+
+    private long nextSequence;
+    private long numRecords;
+
+    private LibraryJournal(Path file, Library library, long lastSequence, long numRecords) throws IOException {
+        this.file = file;
+        this.library = library;
+        this.nextSequence = lastSequence + 1;
+        this.numRecords = numRecords;
+
+        channel = openChannel(file);
+    }
+
+    /**
+     * Replays records of [file] that are newer than [library] onto it, discards a partially written
+     * last record (if any) and opens the journal for appending.
+     * Must be called before [library] is shared with other threads.
+     */
+    public static LibraryJournal open(Path file, Library library) throws IOException {
+        var result = Files.exists(file)
+                ? replay(file, library)
+                : new ReplayResult(0, 0, 0, library.getJournalSequence());
+
+        if (result.validBytes() < sizeOf(file)) {
+            log.warning("Discarding incomplete journal records: " + file + " after byte " + result.validBytes());
+
+            try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                channel.truncate(result.validBytes());
+            }
+        }
+
+        if (result.numApplied() > 0) {
+            log.info("Replayed " + result.numApplied() + " journal records from " + file);
+        }
+
+        return new LibraryJournal(file, library, result.lastSequence(), result.validBytes() / RECORD_SIZE);
+    }
+
+    /**
+     * Applies records of [file] that are newer than [library] onto it, without modifying [file].
+     * Reading stops at the first incomplete or corrupt record.
+     * Afterwards, the journal sequence of [library] is that of the last applied record.
+     */
+    public static ReplayResult replay(Path file, Library library) throws IOException {
+        long snapshotSequence = library.getJournalSequence();
+        long lastSequence = snapshotSequence;
+        long lastSequenceInFile = Long.MIN_VALUE;
+        long validBytes = 0;
+        int numApplied = 0;
+        int numRecords = 0;
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            var buffer = ByteBuffer.allocate(RECORD_SIZE * READ_BUFFER_RECORDS);
+            long position = 0;
+
+            reading:
+            while (true) {
+                buffer.clear();
+
+                int numRead = readFully(channel, buffer, position);
+                buffer.flip();
+
+                for (int offset = 0; offset + RECORD_SIZE <= numRead; offset += RECORD_SIZE) {
+                    var record = buffer.slice(offset, RECORD_SIZE);
+
+                    if (!isValid(record))
+                        break reading;
+
+                    long sequence = record.getLong(0);
+
+                    // sequence numbers only increase, anything else means the tail is garbage
+                    if (sequence <= lastSequenceInFile)
+                        break reading;
+
+                    lastSequenceInFile = sequence;
+
+                    if (sequence > lastSequence) {
+                        apply(record, library);
+                        lastSequence = sequence;
+                        numApplied++;
+                    }
+
+                    numRecords++;
+                    validBytes += RECORD_SIZE;
+                }
+
+                if (numRead < buffer.capacity())
+                    break;
+
+                position += numRead;
+            }
+        }
+
+        library.setJournalSequence(lastSequence);
+
+        return new ReplayResult(numRecords, numApplied, validBytes, lastSequence);
+    }
+
+    /**
+     * @param numRecords number of valid records in the file
+     * @param numApplied number of records that were newer than the library and applied to it
+     * @param validBytes length of the file up to the end of the last valid record
+     * @param lastSequence sequence number of the last record reflected in the library
+     */
+    public record ReplayResult(int numRecords, int numApplied, long validBytes, long lastSequence) { }
+
+    public void recordPlay(Song song) {
+        append(RecordType.PLAY, -1, song.getId(), song.getPlayDate(), song.getPlayCount(), null);
+    }
+
+    public void recordPlaylistCreated(Playlist playlist) {
+        append(RecordType.PLAYLIST_CREATE, playlist.getId(), -1, null, 0, playlist.getTitle());
+    }
+
+    public void recordPlaylistRenamed(Playlist playlist) {
+        append(RecordType.PLAYLIST_RENAME, playlist.getId(), -1, null, 0, playlist.getTitle());
+    }
+
+    public void recordPlaylistDeleted(Playlist playlist) {
+        append(RecordType.PLAYLIST_DELETE, playlist.getId(), -1, null, 0, null);
+    }
+
+    public void recordSongAdded(Playlist playlist, Song song) {
+        append(RecordType.PLAYLIST_ADD_SONG, playlist.getId(), song.getId(), null, 0, null);
+    }
+
+    public void recordSongRemoved(Playlist playlist, Song song) {
+        append(RecordType.PLAYLIST_REMOVE_SONG, playlist.getId(), song.getId(), null, 0, null);
+    }
+
+    /**
+     * Must be called on the thread that modifies the library, right after the change was made.
+     * Failures are logged, the change is then only persisted by the next snapshot.
+     */
+    private synchronized void append(RecordType type, int playlistId, int songId, LocalDateTime playDate, int playCount, String title) {
+        byte[] titleBytes = title == null ? new byte[0] : title.getBytes(StandardCharsets.UTF_8);
+
+        if (titleBytes.length > MAX_TITLE_BYTES)
+            throw new IllegalArgumentException("Title is too long to be journaled: " + title);
+
+        long sequence = nextSequence;
+
+        var record = recordBuffer.clear();
+
+        record.putLong(sequence)
+                .putInt(0)
+                .put((byte) type.ordinal())
+                .put((byte) 0).put((byte) 0).put((byte) 0)
+                .putInt(playlistId)
+                .putInt(songId)
+                .putLong(playDate == null ? 0L : playDate.toEpochSecond(ZoneOffset.UTC))
+                .putInt(playDate == null ? 0 : playDate.getNano())
+                .putInt(playCount)
+                .put((byte) titleBytes.length)
+                .put(titleBytes);
+
+        while (record.hasRemaining()) {
+            record.put((byte) 0);
+        }
+
+        record.putInt(CRC_OFFSET, checksum(record));
+        record.flip();
+
+        try {
+            long position = numRecords * RECORD_SIZE;
+
+            while (record.hasRemaining()) {
+                channel.write(record, position + record.position());
+            }
+
+            nextSequence++;
+            numRecords++;
+
+            library.setJournalSequence(sequence);
+
+        } catch (IOException e) {
+            log.warning("Failed to journal " + type, e);
+        }
+    }
+
+    private static void apply(ByteBuffer record, Library library) {
+        var types = RecordType.values();
+        int typeOrdinal = record.get(12);
+
+        if (typeOrdinal >= types.length)
+            return;
+
+        int playlistId = record.getInt(16);
+        int songId = record.getInt(20);
+
+        switch (types[typeOrdinal]) {
+            case PLAY -> library.findSongById(songId).ifPresent(song -> {
+                song.setPlayCount(record.getInt(36));
+                song.setPlayDate(LocalDateTime.ofEpochSecond(record.getLong(24), record.getInt(32), ZoneOffset.UTC));
+            });
+
+            case PLAYLIST_CREATE -> {
+                if (library.findPlaylistById(playlistId).isEmpty()) {
+                    library.addPlaylist(playlistId, readTitle(record));
+                }
+            }
+
+            case PLAYLIST_RENAME -> library.findPlaylistById(playlistId)
+                    .ifPresent(playlist -> playlist.setTitle(readTitle(record)));
+
+            case PLAYLIST_DELETE -> library.findPlaylistById(playlistId)
+                    .filter(Playlist::isModifiable)
+                    .ifPresent(library::removePlaylist);
+
+            case PLAYLIST_ADD_SONG -> library.findPlaylistById(playlistId)
+                    .ifPresent(playlist -> library.findSongById(songId).ifPresent(playlist::addSong));
+
+            case PLAYLIST_REMOVE_SONG -> library.findPlaylistById(playlistId)
+                    .ifPresent(playlist -> playlist.removeSong(songId));
+        }
+    }
+
+    private static String readTitle(ByteBuffer record) {
+        int length = Math.min(record.get(40) & 0xFF, MAX_TITLE_BYTES);
+
+        byte[] bytes = new byte[length];
+        record.get(41, bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops all records up to and including [sequence], typically after a snapshot that reflects them was written.
+     * Newer records are kept.
+     */
+    public synchronized void truncateUpTo(long sequence) throws IOException {
+        long size = channel.size();
+        long keepFrom = findFirstRecordAfter(sequence, size);
+
+        if (keepFrom == 0)
+            return;
+
+        channel.force(false);
+
+        // the kept tail is small, it only has records appended while the snapshot was being written
+        Serializer.writeAtomically(file, out -> {
+            var target = Channels.newChannel(out);
+
+            for (long position = keepFrom; position < size; ) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        });
+
+        channel.close();
+        channel = openChannel(file);
+
+        numRecords = (size - keepFrom) / RECORD_SIZE;
+    }
+
+    /**
+     * Records are ordered by sequence number, so binary search by record index.
+     *
+     * @return byte position of the first record with a sequence number greater than [sequence], or [size] if none
+     */
+    private long findFirstRecordAfter(long sequence, long size) throws IOException {
+        var buffer = ByteBuffer.allocate(Long.BYTES);
+
+        long low = 0;
+        long high = size / RECORD_SIZE;
+
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+
+            buffer.clear();
+            readFully(channel, buffer, mid * RECORD_SIZE);
+
+            if (buffer.getLong(0) <= sequence) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return Math.min(low * RECORD_SIZE, size);
+    }
+
+    /**
+     * @return number of records in the journal file
+     */
+    public synchronized long size() {
+        return numRecords;
+    }
+
+    /**
+     * Forces written records to the storage device.
+     */
+    public synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+
+        channel.force(false);
+        channel.close();
+    }
+
+    private static FileChannel openChannel(Path file) throws IOException {
+        return FileChannel.open(file, CREATE, READ, WRITE);
+    }
+
+    private static boolean isValid(ByteBuffer record) {
+        int expected = record.getInt(CRC_OFFSET);
+
+        // all-zero regions, e.g. preallocated by the file system after a crash, are not valid records
+        return expected != 0 && expected == checksum(record);
+    }
+
+    private static int checksum(ByteBuffer record) {
+        var crc = new CRC32C();
+        crc.update(record.slice(0, CRC_OFFSET));
+        crc.update(record.slice(CRC_OFFSET + Integer.BYTES, RECORD_SIZE - CRC_OFFSET - Integer.BYTES));
+
+        int value = (int) crc.getValue();
+
+        // 0 marks an unwritten record
+        return value == 0 ? 1 : value;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+
+        while (buffer.hasRemaining()) {
+            int numRead = channel.read(buffer, position + total);
+
+            if (numRead < 0)
+                break;
+
+            total += numRead;
+        }
+
+        return total;
+    }
+
+    private static long sizeOf(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.IntMap;
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.SerializablePlaylist;
+import app.musicplayer.model.serializable.SerializableSong;
+import app.musicplayer.model.serializable.Serializer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static app.musicplayer.model.Playlist.PlaylistType.ALL_SONGS;
+
+/**
+ * Loads a JSON library in two phases, so that it can be shown before the whole file is read.
+ * Phase one ends as soon as the playlists and the first [firstPageSize] songs are read:
+ * the library is created from these and passed to {@link Listener#onFirstPage(Library)}.
+ * Playlists other than the library playlist are lazy, they are materialized when first accessed.
+ * In phase two, the remaining songs are added to the library in batches.
+ * The library is only modified via [executor], e.g. Platform::runLater, once it has been passed to the listener.
+ */
+public final class LibraryLoader {
+
+    private final int firstPageSize;
+    private final int maxBatchSize;
+    private final long batchIntervalMillis;
+    private final Executor executor;
+
+    public LibraryLoader(int firstPageSize, int maxBatchSize, long batchIntervalMillis, Executor executor) {
+        this.firstPageSize = firstPageSize;
+        this.maxBatchSize = maxBatchSize;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Reads [file] on the calling thread, which must not be the [executor] thread.
+     * Listener callbacks are invoked via [executor].
+     */
+    public void load(Path file, Listener listener) throws IOException {
+        var load = new Load(listener);
+
+        var publisher = new BatchPublisher<Song>(maxBatchSize, batchIntervalMillis, executor, songs -> load.library.addSongsNoDuplicateCheck(songs));
+        load.publisher = publisher;
+
+        try {
+            Serializer.readLibraryFromFile(file, load);
+
+            // the file may have fewer songs than a page, or no playlists at all
+            load.publishFirstPage();
+
+        } catch (IOException | RuntimeException e) {
+            publisher.close();
+            throw e;
+        }
+
+        var library = load.library;
+        int nextSongId = load.nextSongId;
+        long journalSequence = load.journalSequence;
+
+        publisher.close(() -> {
+            library.setNextSongIdAtLeast(nextSongId);
+            library.setJournalSequence(journalSequence);
+            library.finishLoading();
+
+            listener.onLoaded(library);
+        });
+    }
+
+    public interface Listener {
+
+        /**
+         * [library] has all playlists and the first songs, the remaining songs are being added.
+         */
+        void onFirstPage(Library library);
+
+        /**
+         * All songs were added.
+         */
+        default void onLoaded(Library library) { }
+    }
+
+    private final class Load implements Serializer.LibraryReadListener {
+
+        private final Listener listener;
+
+        private final List<Song> firstPage = new ArrayList<>(firstPageSize);
+
+        /**
+         * Libraries created by older versions may contain duplicate ids, the first song wins.
+         */
+        private final IntMap<Song> songsById = new IntMap<>();
+
+        private List<SerializablePlaylist> playlists = null;
+        private int nextSongId = 0;
+        private long journalSequence = 0L;
+
+        private BatchPublisher<Song> publisher;
+        private Library library = null;
+
+        private Load(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onPlaylists(List<SerializablePlaylist> playlists) {
+            this.playlists = playlists;
+
+            if (firstPage.size() >= firstPageSize) {
+                publishFirstPage();
+            }
+        }
+
+        @Override
+        public void onSong(SerializableSong serializableSong) {
+            if (songsById.containsKey(serializableSong.id()))
+                return;
+
+            var song = Serializer.fromSerializable(serializableSong);
+            songsById.put(song.getId(), song);
+
+            if (library != null) {
+                publisher.offer(song);
+                return;
+            }
+
+            firstPage.add(song);
+
+            // files written by older versions have songs before playlists, so this may have to wait
+            if (playlists != null && firstPage.size() >= firstPageSize) {
+                publishFirstPage();
+            }
+        }
+
+        @Override
+        public void onNextSongId(int nextSongId) {
+            this.nextSongId = nextSongId;
+        }
+
+        @Override
+        public void onJournalSequence(long journalSequence) {
+            this.journalSequence = journalSequence;
+        }
+
+        private void publishFirstPage() {
+            if (library != null)
+                return;
+
+            List<Playlist> result = new ArrayList<>();
+
+            if (playlists != null) {
+                for (SerializablePlaylist p : playlists) {
+                    var playlist = Serializer.fromSerializable(p);
+
+                    if (p.type() == ALL_SONGS) {
+                        // the library playlist consists of the songs themselves, in file order
+                        playlist.addSongs(firstPage);
+                    } else {
+                        playlist.setPendingSongIds(p.songIDs().stream().mapToInt(Integer::intValue).toArray());
+                    }
+
+                    result.add(playlist);
+                }
+            }
+
+            var newLibrary = new Library(result, nextSongId);
+
+            if (result.stream().noneMatch(playlist -> playlist.getType() == ALL_SONGS)) {
+                newLibrary.addSongsNoDuplicateCheck(firstPage);
+            }
+
+            newLibrary.beginLoading();
+
+            library = newLibrary;
+
+            executor.execute(() -> listener.onFirstPage(newLibrary));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Persists a {@link Library}.
+ * A store is used for a single library: once it has been loaded (or saved), individual changes to it
+ * are recorded as they happen, instead of rewriting the whole library.
+ * Unless stated otherwise, methods must be called on the thread that modifies the library,
+ * right after the change was made, which may be before a library shown early by a two-phase load has loaded.
+ * Recording failures are logged, not thrown.
+ */
+public interface LibraryStore extends AutoCloseable {
+
+    /**
+     * Reads the stored library, including all recorded changes, or an empty library if nothing is stored yet.
+     * May be called on any thread.
+     */
+    Library load() throws IOException;
+
+    /**
+     * Loads the library and passes it to [listener] via [executor], e.g. Platform::runLater.
+     * Stores that can show a library before it is fully read override this, by default the whole library is read first.
+     * Blocks the calling thread, which must not be the [executor] thread.
+     */
+    default void load(LibraryLoader.Listener listener, Executor executor) throws IOException {
+        var library = load();
+
+        executor.execute(() -> {
+            listener.onFirstPage(library);
+            listener.onLoaded(library);
+        });
+    }
+
+    /**
+     * Persists all of [library], for changes that cannot be recorded individually, e.g. imported songs.
+     * From then on, changes to [library] are recorded. The write may complete in the background.
+     */
+    void save(Library library);
+
+    void recordPlay(Song song);
+
+    void recordPlaylistCreated(Playlist playlist);
+
+    void recordPlaylistRenamed(Playlist playlist);
+
+    void recordPlaylistDeleted(Playlist playlist);
+
+    void recordSongAdded(Playlist playlist, Song song);
+
+    void recordSongRemoved(Playlist playlist, Song song);
+
+    /**
+     * Stores that query in the background complete the result on their own thread.
+     *
+     * @return ids of at most [limit] songs that were played, most played first
+     */
+    CompletableFuture<List<Integer>> findMostPlayedSongIds(int limit);
+
+    /**
+     * Stores that query in the background complete the result on their own thread.
+     *
+     * @return ids of at most [limit] songs that were played, most recently played first
+     */
+    CompletableFuture<List<Integer>> findRecentlyPlayedSongIds(int limit);
+
+    /**
+     * Writes pending changes and releases the store.
+     */
+    @Override
+    void close() throws IOException;
+}
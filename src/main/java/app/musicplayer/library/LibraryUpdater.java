@@ -0,0 +1,70 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Song;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Applies the output of an import or rescan to a library.
+ * A freshly loaded song either updates the library song with the same file or is added as a new song.
+ * Must be used on the JavaFX thread if the library is attached to the scene graph.
+ */
+public final class LibraryUpdater {
+
+    private final Library library;
+
+    public LibraryUpdater(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Checks the file system, so it must be called in the background, before [song] is applied.
+     *
+     * @return file of the library song with the same content as [song], if that file no longer exists
+     */
+    public static Optional<Path> findMissingFile(Library library, Song song) {
+        if (song.getContentHash() == 0L)
+            return Optional.empty();
+
+        return library.findFileByContentHash(song.getContentHash())
+                .filter(file -> !file.equals(song.getFile()) && !Files.exists(file));
+    }
+
+    /**
+     * Adds all new songs with a single list change, duplicates are dropped or merged by the library.
+     *
+     * @param missingFiles files found by findMissingFile(), songs with the same content are moved rather than dropped
+     */
+    public void applyLoaded(List<Song> loadedSongs, Set<Path> missingFiles) {
+        List<Song> newSongs = new ArrayList<>(loadedSongs.size());
+
+        for (Song newData : loadedSongs) {
+            library.findSongByFile(newData.getFile()).ifPresentOrElse(
+                    song -> {
+                        song.setLengthInSeconds(newData.getLengthInSeconds());
+                        library.updateContentHash(song, newData.getContentHash());
+                    },
+                    () -> newSongs.add(newData)
+            );
+        }
+
+        library.addSongs(newSongs, missingFiles);
+    }
+
+    public void applyRemoved(List<Path> removedFiles) {
+        removedFiles.forEach(file -> library.findSongByFile(file).ifPresent(library::removeSong));
+    }
+}
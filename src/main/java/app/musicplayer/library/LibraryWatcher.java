@@ -0,0 +1,182 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import com.almasb.fxgl.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches library root directories (recursively) for created, deleted, renamed and modified entries.
+ * Events are debounced: changed paths are collected until no new events arrive for [debounceMillis]
+ * (or at most [maxDelayMillis] during a long burst, e.g. while a large album is being copied),
+ * then passed to [onChanges] as a single set.
+ * [onChanges] is called on the watcher thread.
+ */
+public final class LibraryWatcher implements AutoCloseable {
+
+    private static final Logger log = Logger.get(LibraryWatcher.class);
+
+    private final WatchService watchService;
+
+    /**
+     * Only accessed on the watcher thread.
+     */
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * Roots passed to watch(), registered on the watcher thread, since walking a large tree takes a while.
+     */
+    private final Queue<Path> rootsToRegister = new ConcurrentLinkedQueue<>();
+
+    private final Consumer<Set<Path>> onChanges;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+
+    private final Thread thread;
+
+    public LibraryWatcher(long debounceMillis, Consumer<Set<Path>> onChanges) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.onChanges = onChanges;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = debounceMillis * 10;
+
+        thread = new Thread(this::run, "LibraryWatcher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Starts watching [root] and all of its subdirectories within [debounceMillis].
+     * Can be called from any thread, it does not wait for the directories to be registered.
+     */
+    public void watch(Path root) {
+        rootsToRegister.add(root.toAbsolutePath().normalize());
+    }
+
+    private void registerRoots() {
+        Path root;
+
+        while ((root = rootsToRegister.poll()) != null) {
+            try {
+                registerAll(root);
+            } catch (IOException e) {
+                log.warning("Cannot watch directory: " + root, e);
+            }
+        }
+    }
+
+    private void registerAll(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                var key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+                directories.put(key, dir);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void run() {
+        Set<Path> pendingPaths = new LinkedHashSet<>();
+        long firstPendingTime = 0;
+
+        try {
+            while (true) {
+                registerRoots();
+
+                WatchKey key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    if (pendingPaths.isEmpty()) {
+                        firstPendingTime = System.nanoTime();
+                    }
+
+                    collectEvents(key, pendingPaths);
+                }
+
+                boolean isQuiet = key == null;
+                boolean isOverdue = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstPendingTime) >= maxDelayMillis;
+
+                if (!pendingPaths.isEmpty() && (isQuiet || isOverdue)) {
+                    var paths = new LinkedHashSet<>(pendingPaths);
+                    pendingPaths.clear();
+
+                    try {
+                        onChanges.accept(paths);
+                    } catch (Exception e) {
+                        log.warning("Failed to process file system changes", e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // watcher was closed
+        }
+    }
+
+    private void collectEvents(WatchKey key, Set<Path> pendingPaths) {
+        Path dir = directories.get(key);
+
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // some events were lost, so the whole directory needs to be checked
+                pendingPaths.add(dir);
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+            pendingPaths.add(child);
+
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // files may have been created inside before the directory was registered,
+                // these are picked up because the directory itself is pending
+                try {
+                    registerAll(child);
+                } catch (IOException e) {
+                    log.warning("Cannot watch directory: " + child, e);
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warning("Failed to close watch service", e);
+        }
+
+        thread.interrupt();
+    }
+}
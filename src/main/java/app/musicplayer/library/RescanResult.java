@@ -0,0 +1,70 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Song;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Changes detected by a {@link Rescanner}.
+ * Songs in [changedSongs] are freshly loaded and carry the new data for songs already in the library.
+ */
+public record RescanResult(
+        List<Song> addedSongs,
+        List<Song> changedSongs,
+        List<Path> removedFiles,
+        int numUnchanged
+) {
+
+    public boolean hasChanges() {
+        return !addedSongs.isEmpty() || !changedSongs.isEmpty() || !removedFiles.isEmpty();
+    }
+
+    /**
+     * Checks the file system, so it must be called in the background, before applyTo().
+     *
+     * @return files of library songs with the same content as a loaded song that no longer exist, see LibraryUpdater
+     */
+    public Set<Path> findMissingFiles(Library library) {
+        Set<Path> result = new HashSet<>();
+
+        Stream.concat(changedSongs.stream(), addedSongs.stream())
+                .forEach(song -> LibraryUpdater.findMissingFile(library, song).ifPresent(result::add));
+
+        return result;
+    }
+
+    /**
+     * Applies the changes to [library].
+     * Must be called on the JavaFX thread if the library is attached to the scene graph.
+     *
+     * @param missingFiles result of findMissingFiles()
+     */
+    public void applyTo(Library library, Set<Path> missingFiles) {
+        var updater = new LibraryUpdater(library);
+
+        // removals go last, so that a renamed file is merged with its old song by content hash
+        updater.applyLoaded(changedSongs, missingFiles);
+        updater.applyLoaded(addedSongs, missingFiles);
+        updater.applyRemoved(removedFiles);
+    }
+
+    @Override
+    public String toString() {
+        return "added: " + addedSongs.size()
+                + ", changed: " + changedSongs.size()
+                + ", removed: " + removedFiles.size()
+                + ", unchanged: " + numUnchanged;
+    }
+}
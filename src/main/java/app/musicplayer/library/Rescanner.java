@@ -0,0 +1,162 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Song;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.IntSupplier;
+
+/**
+ * Scans a directory and compares each supported file against its fingerprint in a {@link FingerprintIndex}.
+ * Only new and changed files have their tags read, unchanged files only cost a directory walk.
+ * The index is updated to reflect the scanned state of the directory.
+ */
+public final class Rescanner {
+
+    private final ImportEngine engine;
+    private final FingerprintIndex index;
+
+    public Rescanner(ImportEngine engine, FingerprintIndex index) {
+        this.engine = engine;
+        this.index = index;
+    }
+
+    /**
+     * Scans the whole of [directory] and registers it as an imported root.
+     */
+    public RescanResult rescan(Path directory, IntSupplier idAllocator, ImportEngine.ImportListener listener) throws IOException, InterruptedException {
+        index.addRoot(directory);
+
+        var scan = new Scan();
+        scan.walk(directory);
+
+        index.findFilesUnder(directory)
+                .stream()
+                .filter(file -> !scan.seenFiles.contains(file))
+                .forEach(scan.removedFiles::add);
+
+        return scan.finish(idAllocator, listener);
+    }
+
+    /**
+     * Scans only the given [paths], which may be files or directories, existing or deleted.
+     * This is used to process file system change notifications without walking the whole root.
+     */
+    public RescanResult rescanPaths(Collection<Path> paths, IntSupplier idAllocator, ImportEngine.ImportListener listener) throws IOException, InterruptedException {
+        var scan = new Scan();
+
+        for (Path path : paths) {
+            var absPath = path.toAbsolutePath().normalize();
+
+            if (Files.isDirectory(absPath)) {
+                scan.walk(absPath);
+
+            } else if (Files.isRegularFile(absPath, LinkOption.NOFOLLOW_LINKS)) {
+                scan.visit(absPath, Files.readAttributes(absPath, BasicFileAttributes.class));
+
+            } else if (index.get(absPath).isPresent()) {
+                scan.removedFiles.add(absPath);
+
+            } else {
+                // not a known file, so it may be a deleted directory
+                index.findFilesUnder(absPath)
+                        .stream()
+                        .filter(file -> !Files.exists(file))
+                        .forEach(scan.removedFiles::add);
+            }
+        }
+
+        return scan.finish(idAllocator, listener);
+    }
+
+    /**
+     * Accumulates the state of a single scan.
+     */
+    private final class Scan {
+        private final Map<Path, FileFingerprint> newFiles = new LinkedHashMap<>();
+        private final Map<Path, FileFingerprint> changedFiles = new LinkedHashMap<>();
+        private final Set<Path> seenFiles = new HashSet<>();
+        private final Set<Path> removedFiles = new LinkedHashSet<>();
+        private int numUnchanged = 0;
+
+        private void walk(Path directory) throws IOException {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    visit(file.toAbsolutePath().normalize(), attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // unreadable entries are treated as if they do not exist
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /**
+         * @param file absolute normalized path
+         */
+        private void visit(Path file, BasicFileAttributes attrs) {
+            if (!attrs.isRegularFile() || !ImportEngine.isSupportedFileType(file))
+                return;
+
+            if (!seenFiles.add(file))
+                return;
+
+            var fingerprint = FileFingerprint.of(attrs);
+
+            index.get(file).ifPresentOrElse(
+                    oldFingerprint -> {
+                        if (oldFingerprint.equals(fingerprint)) {
+                            numUnchanged++;
+                        } else {
+                            changedFiles.put(file, fingerprint);
+                        }
+                    },
+                    () -> newFiles.put(file, fingerprint)
+            );
+        }
+
+        private RescanResult finish(IntSupplier idAllocator, ImportEngine.ImportListener listener) throws InterruptedException {
+            removedFiles.forEach(index::remove);
+
+            List<Path> filesToLoad = new ArrayList<>(newFiles.size() + changedFiles.size());
+            filesToLoad.addAll(newFiles.keySet());
+            filesToLoad.addAll(changedFiles.keySet());
+
+            List<Song> loadedSongs = engine.loadSongs(filesToLoad, idAllocator, listener);
+
+            List<Song> addedSongs = new ArrayList<>();
+            List<Song> changedSongs = new ArrayList<>();
+
+            for (Song song : loadedSongs) {
+                var file = song.getFile();
+
+                if (changedFiles.containsKey(file)) {
+                    index.put(file, changedFiles.get(file));
+                    changedSongs.add(song);
+                } else {
+                    index.put(file, newFiles.get(file));
+                    addedSongs.add(song);
+                }
+            }
+
+            return new RescanResult(addedSongs, changedSongs, new ArrayList<>(removedFiles), numUnchanged);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive int keys to values, with linear probing.
+ * Keys are never boxed, so lookups and updates do not allocate.
+ * Null values are not permitted (a null value marks an empty slot).
+ * This class is not thread-safe.
+ */
+public final class IntMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+    private int mask;
+
+    public IntMap() {
+        this(16);
+    }
+
+    public IntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = indexOf(key);
+
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return previous value for [key] or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values are not permitted");
+
+        int i = hash(key) & mask;
+
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                var oldValue = (V) values[i];
+                values[i] = value;
+                return oldValue;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        size++;
+
+        if (size > values.length * LOAD_FACTOR) {
+            resize(values.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return removed value for [key] or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = indexOf(key);
+
+        if (i < 0)
+            return null;
+
+        var oldValue = (V) values[i];
+        values[i] = null;
+        size--;
+
+        // shift back subsequent entries of the probe sequence so that lookups do not stop early
+        int gap = i;
+        int j = (i + 1) & mask;
+
+        while (values[j] != null) {
+            int home = hash(keys[j]) & mask;
+
+            // move entry j into the gap if its home slot is not in (gap, j]
+            boolean canMove = gap <= j
+                    ? (home <= gap || home > j)
+                    : (home <= gap && home > j);
+
+            if (canMove) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                values[j] = null;
+                gap = j;
+            }
+
+            j = (j + 1) & mask;
+        }
+
+        return oldValue;
+    }
+
+    /**
+     * Removes [key] only if it is mapped to [value] (by identity).
+     */
+    public boolean remove(int key, V value) {
+        if (get(key) != value)
+            return false;
+
+        remove(key);
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private int indexOf(int key) {
+        int i = hash(key) & mask;
+
+        while (values[i] != null) {
+            if (keys[i] == key)
+                return i;
+
+            i = (i + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void resize(int newCapacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+
+        keys = new int[newCapacity];
+        values = new Object[newCapacity];
+        mask = newCapacity - 1;
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = hash(oldKeys[i]) & mask;
+
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        // sequential ids would otherwise form long probe runs
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public interface Visitor<V> {
+        void visit(int key, V value);
+    }
+}
@@ -7,10 +7,13 @@
 
 package app.musicplayer.model;
 
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
-import javax.swing.text.html.Option;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static app.musicplayer.model.Playlist.PlaylistType.*;
 
@@ -21,6 +24,36 @@ public final class Library {
 
     private List<Playlist> playlists = new ArrayList<>();
 
+    /**
+     * Duplicate detection indices over the library playlist, kept in sync by a list listener.
+     * Songs are keyed by absolute normalized file path and, if known, by content hash.
+     */
+    private final Map<String, Song> songsByFile = new HashMap<>();
+    private final Map<Long, Song> songsByContentHash = new HashMap<>();
+    private final IntMap<Song> songsById = new IntMap<>();
+
+    /**
+     * Files of the songs in [songsByContentHash], for lookups from import threads.
+     */
+    private final Map<Long, Path> filesByContentHash = new ConcurrentHashMap<>();
+
+    /**
+     * Song ids are unique within a library and never reused.
+     */
+    private final AtomicInteger nextSongId;
+
+    private int nextPlaylistId = 0;
+
+    /**
+     * Sequence number of the last journal record reflected in this library, see LibraryJournal.
+     */
+    private long journalSequence = 0L;
+
+    /**
+     * False while songs are still being added by a two-phase load, see LibraryLoader.
+     */
+    private boolean isLoaded = true;
+
     /**
      * Ctor for importing library from music directory.
      */
@@ -32,31 +65,209 @@ public final class Library {
         ));
     }
 
+    public Library(List<Playlist> playlists) {
+        this(playlists, 0);
+    }
+
     /**
      * Ctor for loading library from its serialized form.
+     *
+     * @param nextSongId the next id to allocate, ids of existing songs are taken into account regardless
      */
-    public Library(List<Playlist> playlists) {
-        boolean allPlaylistTypesArePresent = findPlaylistByType(ALL_SONGS).isPresent() &&
-                findPlaylistByType(MOST_PLAYED).isPresent() &&
-                findPlaylistByType(RECENTLY_PLAYED).isPresent();
+    public Library(List<Playlist> playlists, int nextSongId) {
+        this.playlists.addAll(playlists);
 
-        if (allPlaylistTypesArePresent) {
-            this.playlists.addAll(playlists);
+        nextPlaylistId = playlists.stream()
+                .mapToInt(Playlist::getId)
+                .max()
+                .orElse(-1) + 1;
+
+        // playlists from older versions have no (or the same) id
+        var playlistIds = new HashSet<Integer>();
+
+        for (Playlist playlist : this.playlists) {
+            if (playlist.getId() < 0 || !playlistIds.add(playlist.getId())) {
+                playlist.setId(nextPlaylistId++);
+                playlistIds.add(playlist.getId());
+            }
         }
 
-        // TODO: check that all 3 built-in playlist types are present
+        // the serialized form may be incomplete, so ensure all built-in playlist types are present
+        if (findPlaylistByType(ALL_SONGS).isEmpty())
+            this.playlists.add(new Playlist(nextPlaylistId++, ALL_SONGS, "All songs"));
+
+        if (findPlaylistByType(MOST_PLAYED).isEmpty())
+            this.playlists.add(new Playlist(nextPlaylistId++, MOST_PLAYED, "Most Played"));
+
+        if (findPlaylistByType(RECENTLY_PLAYED).isEmpty())
+            this.playlists.add(new Playlist(nextPlaylistId++, RECENTLY_PLAYED, "Recently Played"));
+
+        var songs = getLibraryPlaylist().getSongs();
+
+        int maxSongId = songs.stream()
+                .mapToInt(Song::getId)
+                .max()
+                .orElse(-1);
+
+        this.nextSongId = new AtomicInteger(Math.max(nextSongId, maxSongId + 1));
+
+        songs.forEach(this::index);
+
+        this.playlists.forEach(playlist -> playlist.setSongResolver(songsById::get));
+
+        songs.addListener((ListChangeListener<Song>) change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(this::unindex);
+                change.getAddedSubList().forEach(this::index);
+            }
+        });
+    }
+
+    private void index(Song song) {
+        songsById.put(song.getId(), song);
+        setNextSongIdAtLeast(song.getId() + 1);
+        songsByFile.put(fileKey(song.getFile()), song);
+
+        indexContentHash(song);
+    }
+
+    private void unindex(Song song) {
+        songsById.remove(song.getId(), song);
+        songsByFile.remove(fileKey(song.getFile()), song);
+        unindexContentHash(song);
+    }
+
+    private void indexContentHash(Song song) {
+        if (song.getContentHash() != 0L && songsByContentHash.putIfAbsent(song.getContentHash(), song) == null) {
+            filesByContentHash.put(song.getContentHash(), song.getFile());
+        }
+    }
+
+    private void unindexContentHash(Song song) {
+        if (songsByContentHash.remove(song.getContentHash(), song)) {
+            filesByContentHash.remove(song.getContentHash());
+        }
     }
 
     public void addSongsNoDuplicateCheck(List<Song> songs) {
         getLibraryPlaylist().getSongs().addAll(songs);
     }
 
+    /**
+     * Adds songs that are not yet in the library with a single list change.
+     * A song is a duplicate if a library song has the same file.
+     * If content hashes are known, a song is also a duplicate if a library song has the same content:
+     * if that library song's file is in [missingFiles], it is moved to the new file (keeping its play stats),
+     * otherwise the new song is dropped.
+     *
+     * @param missingFiles files that an import found to no longer exist, see findFileByContentHash()
+     * @return songs that were actually added
+     */
+    public List<Song> addSongs(List<Song> songs, Set<Path> missingFiles) {
+        List<Song> newSongs = new ArrayList<>(songs.size());
+
+        for (Song song : songs) {
+            if (songsByFile.containsKey(fileKey(song.getFile())))
+                continue;
+
+            var sameContentSong = song.getContentHash() != 0L
+                    ? songsByContentHash.get(song.getContentHash())
+                    : null;
+
+            if (sameContentSong != null) {
+                if (missingFiles.contains(sameContentSong.getFile())) {
+                    moveSong(sameContentSong, song.getFile());
+                }
+
+                continue;
+            }
+
+            // index now so that duplicates within [songs] are also detected
+            index(song);
+            newSongs.add(song);
+        }
+
+        getLibraryPlaylist().getSongs().addAll(newSongs);
+
+        return newSongs;
+    }
+
     public void addSong(Song song) {
-        getLibraryPlaylist().addSong(song);
+        addSongs(List.of(song), Set.of());
+    }
+
+    /**
+     * Changes the file of [song], e.g. after the file was moved or renamed.
+     */
+    public void moveSong(Song song, Path newFile) {
+        songsByFile.remove(fileKey(song.getFile()), song);
+        song.setFile(newFile);
+        songsByFile.put(fileKey(newFile), song);
+
+        if (songsByContentHash.get(song.getContentHash()) == song) {
+            filesByContentHash.put(song.getContentHash(), newFile);
+        }
+    }
+
+    /**
+     * Changes the content hash of [song], e.g. after the file was modified.
+     */
+    public void updateContentHash(Song song, long contentHash) {
+        unindexContentHash(song);
+        song.setContentHash(contentHash);
+        indexContentHash(song);
+    }
+
+    /**
+     * Can be called from any thread.
+     *
+     * @return a new unique song id
+     */
+    public int allocateSongId() {
+        return nextSongId.getAndIncrement();
+    }
+
+    /**
+     * Ensures that ids below [nextSongId] are never allocated.
+     */
+    public void setNextSongIdAtLeast(int nextSongId) {
+        this.nextSongId.accumulateAndGet(nextSongId, Math::max);
+    }
+
+    /**
+     * @return the id that will be allocated next
+     */
+    public int getNextSongId() {
+        return nextSongId.get();
+    }
+
+    public Optional<Song> findSongById(int id) {
+        return Optional.ofNullable(songsById.get(id));
     }
 
+    public Optional<Song> findSongByFile(Path file) {
+        return Optional.ofNullable(songsByFile.get(fileKey(file)));
+    }
+
+    public Optional<Song> findSongByContentHash(long contentHash) {
+        return Optional.ofNullable(songsByContentHash.get(contentHash));
+    }
+
+    /**
+     * Can be called from any thread, so that an import can check in the background
+     * whether a song with the same content as a loaded one still has its file.
+     *
+     * @return file of the library song with [contentHash]
+     */
+    public Optional<Path> findFileByContentHash(long contentHash) {
+        return Optional.ofNullable(filesByContentHash.get(contentHash));
+    }
+
+    /**
+     * Removes [song] from the library and from all playlists.
+     */
     public void removeSong(Song song) {
-        getLibraryPlaylist().getSongs().remove(song);
+        playlists.forEach(playlist -> playlist.removeSongIfMaterialized(song));
     }
 
     public ObservableList<Song> getSongs() {
@@ -90,14 +301,83 @@ public final class Library {
     }
 
     public Playlist addPlaylist(String title) {
-        var p = new Playlist(USER_CREATED, title);
+        return addPlaylist(nextPlaylistId, title);
+    }
+
+    /**
+     * Adds a user playlist with the given [id], e.g. when replaying a journal.
+     */
+    public Playlist addPlaylist(int id, String title) {
+        var p = new Playlist(id, USER_CREATED, title);
+        p.setSongResolver(songsById::get);
 
         playlists.add(p);
 
+        nextPlaylistId = Math.max(nextPlaylistId, id + 1);
+
         return p;
     }
 
+    /**
+     * Adds back a user playlist that was removed, with a new id if its id was taken in the meantime,
+     * e.g. by a playlist created while replaying a journal.
+     */
+    public void restorePlaylist(Playlist playlist) {
+        if (playlists.contains(playlist))
+            return;
+
+        if (findPlaylistById(playlist.getId()).isPresent()) {
+            playlist.setId(nextPlaylistId);
+        }
+
+        playlists.add(playlist);
+
+        nextPlaylistId = Math.max(nextPlaylistId, playlist.getId() + 1);
+    }
+
+    public Optional<Playlist> findPlaylistById(int id) {
+        return playlists.stream()
+                .filter(playlist -> playlist.getId() == id)
+                .findFirst();
+    }
+
+    /**
+     * Called by a two-phase load before the remaining songs are added.
+     * Until {@link #finishLoading()}, lazily loaded playlists are not materialized.
+     */
+    public void beginLoading() {
+        isLoaded = false;
+
+        playlists.forEach(playlist -> playlist.setSongResolver(null));
+    }
+
+    /**
+     * Called by a two-phase load once all songs were added.
+     * Lazily loaded playlists that were accessed in the meantime are materialized now.
+     */
+    public void finishLoading() {
+        isLoaded = true;
+
+        playlists.forEach(playlist -> playlist.setSongResolver(songsById::get));
+    }
+
+    public boolean isLoaded() {
+        return isLoaded;
+    }
+
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
     public void removePlaylist(Playlist playlist) {
         playlists.remove(playlist);
     }
+
+    private static String fileKey(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
 }
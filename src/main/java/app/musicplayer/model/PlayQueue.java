@@ -0,0 +1,345 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model;
+
+import javafx.collections.ListChangeListener;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The order in which songs of a playlist are played.
+ * The queue keeps a cursor over a snapshot of the playlist's song ids, so moving to the next
+ * or previous song takes constant time regardless of the playlist size.
+ * Shuffling permutes the play order only, the playlist itself is not reordered.
+ * Songs queued with playNext() or enqueue() are played before the song after the cursor.
+ * Edits of the playlist are followed: songs removed from it are skipped and songs added to it are appended,
+ * or inserted at a random point after the current song if shuffled.
+ * Must be used on the JavaFX thread.
+ */
+public final class PlayQueue {
+
+    public enum LoopMode {
+        OFF, ALL, ONE
+    }
+
+    private final Playlist playlist;
+
+    private int[] songIds;
+    private int size = 0;
+
+    /**
+     * Index of each song id in [songIds].
+     */
+    private final IntMap<Integer> positions;
+
+    /**
+     * If shuffled, the play order as indices into [songIds] and the inverse, the index of each song in [order].
+     * Null if songs are played in the playlist's order.
+     */
+    private int[] order = null;
+    private int[] orderPositions = null;
+
+    private final Random random = new Random();
+
+    /**
+     * Index into the play order of the current song, or of the song the queued songs were played after.
+     */
+    private int cursor = 0;
+
+    private Song currentSong;
+
+    private final Deque<Song> queuedSongs = new ArrayDeque<>();
+
+    /**
+     * True if the current song was taken from [queuedSongs], the cursor then is at the song it was played after.
+     */
+    private boolean isQueuedSongCurrent = false;
+
+    private LoopMode loopMode = LoopMode.OFF;
+
+    private final ListChangeListener<Song> playlistListener = change -> {
+        while (change.next()) {
+            // removed songs are skipped when reached, re-added ones keep their position
+            change.getAddedSubList().forEach(this::append);
+        }
+    };
+
+    /**
+     * Plays [playlist] from [song].
+     */
+    public PlayQueue(Playlist playlist, Song song) {
+        this.playlist = playlist;
+        this.currentSong = song;
+
+        var songs = playlist.getSongs();
+
+        songIds = new int[Math.max(16, songs.size())];
+        positions = new IntMap<>(songs.size());
+
+        songs.forEach(this::append);
+
+        var position = positions.get(song.getId());
+        cursor = position != null ? position : 0;
+
+        songs.addListener(playlistListener);
+    }
+
+    public Playlist getPlaylist() {
+        return playlist;
+    }
+
+    public Song getCurrentSong() {
+        return currentSong;
+    }
+
+    public LoopMode getLoopMode() {
+        return loopMode;
+    }
+
+    public void setLoopMode(LoopMode loopMode) {
+        this.loopMode = loopMode;
+    }
+
+    public boolean isShuffled() {
+        return order != null;
+    }
+
+    /**
+     * Shuffling takes linear time: the current song is moved to the front of the play order
+     * and the remaining songs are permuted with a Fisher-Yates shuffle.
+     * Turning shuffle off takes constant time, the playlist's order continues from the current song.
+     */
+    public void setShuffled(boolean isShuffled) {
+        if (isShuffled == isShuffled() || size == 0)
+            return;
+
+        int current = songIndexAt(cursor);
+
+        if (!isShuffled) {
+            order = null;
+            orderPositions = null;
+            cursor = current;
+            return;
+        }
+
+        order = new int[songIds.length];
+        orderPositions = new int[songIds.length];
+
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            orderPositions[i] = i;
+        }
+
+        swapOrder(0, current);
+
+        for (int i = size - 1; i > 1; i--) {
+            swapOrder(i, 1 + random.nextInt(i));
+        }
+
+        cursor = 0;
+    }
+
+    private void append(Song song) {
+        if (positions.containsKey(song.getId()))
+            return;
+
+        if (size == songIds.length) {
+            songIds = Arrays.copyOf(songIds, size * 2);
+
+            if (order != null) {
+                order = Arrays.copyOf(order, size * 2);
+                orderPositions = Arrays.copyOf(orderPositions, size * 2);
+            }
+        }
+
+        positions.put(song.getId(), size);
+        songIds[size] = song.getId();
+
+        if (order != null) {
+            order[size] = size;
+            orderPositions[size] = size;
+
+            // an inside-out Fisher-Yates step over the songs not yet played
+            swapOrder(size, cursor + 1 + random.nextInt(size - cursor));
+        }
+
+        size++;
+    }
+
+    private void swapOrder(int i, int j) {
+        int songIndex = order[i];
+        order[i] = order[j];
+        order[j] = songIndex;
+
+        orderPositions[order[i]] = i;
+        orderPositions[order[j]] = j;
+    }
+
+    /**
+     * Makes [song] the current song, keeping queued songs.
+     *
+     * @return false if [song] is not in the playlist
+     */
+    public boolean jumpTo(Song song) {
+        var position = positions.get(song.getId());
+
+        if (position == null || !playlist.containsSong(song))
+            return false;
+
+        cursor = order != null ? orderPositions[position] : position;
+        currentSong = song;
+        isQueuedSongCurrent = false;
+        return true;
+    }
+
+    /**
+     * Plays [songs] in the given order right after the current song.
+     */
+    public void playNext(List<Song> songs) {
+        for (int i = songs.size() - 1; i >= 0; i--) {
+            queuedSongs.addFirst(songs.get(i));
+        }
+    }
+
+    /**
+     * Plays [songs] after the songs already queued.
+     */
+    public void enqueue(List<Song> songs) {
+        queuedSongs.addAll(songs);
+    }
+
+    /**
+     * @return the song onEndOfMedia() will move to, without moving
+     */
+    public Song peekNext() {
+        if (loopMode == LoopMode.ONE)
+            return currentSong;
+
+        if (!queuedSongs.isEmpty())
+            return queuedSongs.peekFirst();
+
+        int position = findNext(cursor);
+
+        return position < 0 ? null : songAt(position);
+    }
+
+    /**
+     * Moves to the song to play once the current song has finished: the same song if looping one song, otherwise as next().
+     *
+     * @return the new current song, or null if the end of the playlist was reached (the current song is kept)
+     */
+    public Song onEndOfMedia() {
+        if (loopMode == LoopMode.ONE)
+            return currentSong;
+
+        return next();
+    }
+
+    /**
+     * Moves to the song after the current one, e.g. when the user skips a song, even if looping one song.
+     * The end of the playlist is only wrapped around if looping all songs.
+     *
+     * @return the new current song, or null if the end of the playlist was reached (the current song is kept)
+     */
+    public Song next() {
+        if (!queuedSongs.isEmpty()) {
+            currentSong = queuedSongs.pollFirst();
+            isQueuedSongCurrent = true;
+            return currentSong;
+        }
+
+        int position = findNext(cursor);
+
+        if (position < 0)
+            return null;
+
+        cursor = position;
+        currentSong = songAt(position);
+        isQueuedSongCurrent = false;
+        return currentSong;
+    }
+
+    /**
+     * Moves to the song before the current one. Queued songs are not revisited,
+     * so while a queued song plays, this moves to the song it was played after.
+     *
+     * @return the new current song, or null if the start of the playlist was reached (the current song is kept)
+     */
+    public Song previous() {
+        if (isQueuedSongCurrent) {
+            isQueuedSongCurrent = false;
+
+            var song = songAt(cursor);
+
+            if (song != null) {
+                currentSong = song;
+                return song;
+            }
+        }
+
+        for (int position = cursor - 1; position >= 0; position--) {
+            var song = songAt(position);
+
+            if (song != null) {
+                cursor = position;
+                currentSong = song;
+                return song;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Normally the next position, only songs removed from the playlist since the snapshot are skipped.
+     *
+     * @return position of the first song after [position] that is still in the playlist, or -1
+     */
+    private int findNext(int position) {
+        for (int i = 1; i <= size; i++) {
+            int next = position + i;
+
+            if (next >= size) {
+                if (loopMode != LoopMode.ALL)
+                    return -1;
+
+                next -= size;
+            }
+
+            if (songAt(next) != null)
+                return next;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return index into [songIds] of the song at [position] in the play order
+     */
+    private int songIndexAt(int position) {
+        return order != null ? order[position] : position;
+    }
+
+    /**
+     * @return song at [position] in the play order or null if it was removed from the playlist
+     */
+    private Song songAt(int position) {
+        return playlist.findSongById(songIds[songIndexAt(position)]).orElse(null);
+    }
+
+    /**
+     * Stops following edits of the playlist.
+     */
+    public void dispose() {
+        playlist.getSongs().removeListener(playlistListener);
+    }
+}
@@ -7,12 +7,16 @@
 
 package app.musicplayer.model;
 
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 import java.util.*;
+import java.util.function.IntFunction;
 
 /**
  * A playlist is a collection of songs.
@@ -24,64 +28,120 @@ public final class Playlist implements Comparable<Playlist> {
         ALL_SONGS, MOST_PLAYED, RECENTLY_PLAYED, USER_CREATED
     }
 
-    private List<Integer> originalOrder = new ArrayList<>();
+    /**
+     * Unique within a library, assigned by the library if unset (negative).
+     */
+    private int id;
+
     private ObservableList<Song> songs = FXCollections.observableArrayList();
 
     /**
-     * Tells us if we can trust the view in [songs].
+     * Same songs as in [songs] keyed by id, for constant time membership checks and lookups.
+     */
+    private final IntMap<Song> songsById = new IntMap<>();
+
+    /**
+     * Ids of songs not yet resolved to songs, or null if this playlist is materialized.
+     * Lazily loaded playlists are materialized on first access of [songs], once [songResolver] is available.
      */
-    private boolean isViewDirty = false;
+    private int[] pendingSongIds = null;
+    private IntFunction<Song> songResolver = null;
+    private boolean isAccessedWhilePending = false;
+
+    /**
+     * Number of songs, including pending ones.
+     */
+    private final ReadOnlyIntegerWrapper numSongs = new ReadOnlyIntegerWrapper(0);
 
     private PlaylistType type;
     private StringProperty title;
     private Song lastSelectedSong = null;
 
     public Playlist(PlaylistType type, String title) {
+        this(-1, type, title);
+    }
+
+    public Playlist(int id, PlaylistType type, String title) {
+        this.id = id;
         this.type = type;
         this.title = new SimpleStringProperty(title);
+
+        songs.addListener((ListChangeListener<Song>) change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(song -> songsById.remove(song.getId(), song));
+                change.getAddedSubList().forEach(song -> songsById.put(song.getId(), song));
+            }
+
+            numSongs.set(songs.size());
+        });
     }
 
-    public void shuffle() {
-        if (isViewDirty)
-            return;
+    /**
+     * Makes this playlist lazy: [songIds] are resolved to songs when its songs are first accessed.
+     * Must be called before the playlist has songs.
+     */
+    public void setPendingSongIds(int[] songIds) {
+        pendingSongIds = songIds;
+        numSongs.set(songIds.length);
+    }
 
-        originalOrder.clear();
-        originalOrder.addAll(
-                songs.stream()
-                        .map(Song::getId)
-                        .toList()
-        );
+    /**
+     * Set by the library once all songs are available, null while they are being loaded.
+     * Pending songs that were accessed while there was no resolver are materialized right away.
+     */
+    void setSongResolver(IntFunction<Song> songResolver) {
+        this.songResolver = songResolver;
 
-        // do not shuffle potentially live scene graph
-        var tmp = new ArrayList<>(songs);
-        Collections.shuffle(tmp);
-        songs.setAll(tmp);
+        if (isAccessedWhilePending) {
+            materialize();
+        }
+    }
 
-        isViewDirty = true;
+    public boolean isMaterialized() {
+        return pendingSongIds == null;
     }
 
-    public void restoreFromShuffle() {
-        if (!isViewDirty)
+    private void materialize() {
+        if (pendingSongIds == null || songResolver == null)
             return;
 
-        var idsToRemove = originalOrder.stream()
-                .filter(id -> songs.stream().noneMatch(s -> s.getId() == id))
-                .toList();
+        var ids = pendingSongIds;
+        pendingSongIds = null;
+
+        List<Song> resolvedSongs = new ArrayList<>(ids.length);
 
-        originalOrder.removeAll(idsToRemove);
+        // songs removed from the library in the meantime are not resolved
+        for (int id : ids) {
+            var song = songResolver.apply(id);
 
-        songs.forEach(s -> {
-            if (!originalOrder.contains(s.getId())) {
-                originalOrder.add(s.getId());
+            if (song != null) {
+                resolvedSongs.add(song);
             }
-        });
+        }
+
+        addSongs(resolvedSongs);
+
+        numSongs.set(songs.size());
+    }
+
+    /**
+     * Unlike getSongs(), does not materialize a lazily loaded playlist.
+     *
+     * @return ids of songs in this playlist in order
+     */
+    public int[] getSongIds() {
+        if (pendingSongIds != null)
+            return pendingSongIds.clone();
+
+        return songs.stream().mapToInt(Song::getId).toArray();
+    }
 
-        // do not sort potentially live scene graph
-        var tmp = new ArrayList<>(songs);
-        tmp.sort(Comparator.comparingInt(song -> originalOrder.indexOf(song.getId())));
-        songs.setAll(tmp);
+    public int getId() {
+        return id;
+    }
 
-        isViewDirty = false;
+    void setId(int id) {
+        this.id = id;
     }
 
     public PlaylistType getType() {
@@ -92,10 +152,39 @@ public final class Playlist implements Comparable<Playlist> {
         return type == PlaylistType.USER_CREATED;
     }
 
+    /**
+     * Materializes a lazily loaded playlist.
+     * If songs are still being loaded, the returned list is filled once they are.
+     */
     public ObservableList<Song> getSongs() {
+        if (pendingSongIds != null) {
+            if (songResolver == null) {
+                isAccessedWhilePending = true;
+            } else {
+                materialize();
+            }
+        }
+
         return songs;
     }
 
+    /**
+     * Unlike getSongs(), does not materialize a lazily loaded playlist.
+     */
+    public ReadOnlyIntegerProperty numSongsProperty() {
+        return numSongs.getReadOnlyProperty();
+    }
+
+    /**
+     * Removes [song] without materializing a lazily loaded playlist, pending songs that are no longer
+     * in the library are dropped on materialization anyway.
+     */
+    void removeSongIfMaterialized(Song song) {
+        if (pendingSongIds == null) {
+            songs.remove(song);
+        }
+    }
+
     public String getTitle() {
         return title.get();
     }
@@ -108,14 +197,95 @@ public final class Playlist implements Comparable<Playlist> {
         this.title.set(title);
     }
     
-    public void addSong(Song song) {
-    	if (!songs.contains(song)) {
-    		songs.add(song);
-    	}
+    /**
+     * While songs are still being loaded, a lazily loaded playlist cannot be materialized, so [song] is added to its pending songs.
+     *
+     * @return true if [song] was added, false if it already is in this playlist
+     */
+    public boolean addSong(Song song) {
+        materialize();
+
+        if (pendingSongIds != null)
+            return addPendingSongs(List.of(song)) > 0;
+
+        if (containsSong(song))
+            return false;
+
+        songs.add(song);
+        return true;
     }
     
+    /**
+     * Adds songs that are not yet in this playlist with a single list change.
+     */
+    public void addSongs(Collection<Song> newSongs) {
+        materialize();
+
+        if (pendingSongIds != null) {
+            addPendingSongs(newSongs);
+            return;
+        }
+
+        var added = new IntMap<Song>(newSongs.size());
+        List<Song> songsToAdd = new ArrayList<>(newSongs.size());
+
+        for (Song song : newSongs) {
+            if (!containsSong(song) && added.put(song.getId(), song) == null) {
+                songsToAdd.add(song);
+            }
+        }
+
+        songs.addAll(songsToAdd);
+    }
+
+    /**
+     * @return number of songs appended to the pending songs, those already pending are skipped
+     */
+    private int addPendingSongs(Collection<Song> newSongs) {
+        var ids = new IntMap<Boolean>(pendingSongIds.length + newSongs.size());
+
+        for (int id : pendingSongIds) {
+            ids.put(id, true);
+        }
+
+        int numPending = pendingSongIds.length;
+        int[] result = Arrays.copyOf(pendingSongIds, numPending + newSongs.size());
+        int size = numPending;
+
+        for (Song song : newSongs) {
+            if (ids.put(song.getId(), true) == null) {
+                result[size++] = song.getId();
+            }
+        }
+
+        pendingSongIds = Arrays.copyOf(result, size);
+        numSongs.set(size);
+
+        return size - numPending;
+    }
+
+    public boolean containsSong(Song song) {
+        return songsById.get(song.getId()) == song;
+    }
+
+    public Optional<Song> findSongById(int songId) {
+        return Optional.ofNullable(songsById.get(songId));
+    }
+
     public void removeSong(int songId) {
-        songs.removeIf(s -> s.getId() == songId);
+        materialize();
+
+        if (pendingSongIds != null) {
+            pendingSongIds = Arrays.stream(pendingSongIds).filter(id -> id != songId).toArray();
+            numSongs.set(pendingSongIds.length);
+            return;
+        }
+
+        var song = songsById.get(songId);
+
+        if (song != null) {
+            songs.remove(song);
+        }
     }
 
     public Optional<Song> lastSelectedSong() {
@@ -9,7 +9,6 @@ package app.musicplayer.model;
 
 import com.almasb.fxgl.core.util.LazyValue;
 import javafx.beans.property.*;
-import javafx.scene.image.Image;
 
 import java.nio.file.Path;
 import java.time.LocalDateTime;
@@ -21,13 +20,24 @@ public final class Song implements Comparable<Song> {
     private IntegerProperty lengthInSeconds;
     private IntegerProperty playCount;
     private ObjectProperty<LocalDateTime> playDate;
-    private ObjectProperty<Image> artwork;
     private ObjectProperty<Path> file;
 
     private StringProperty displayLength;
     private BooleanProperty isPlaying;
     private BooleanProperty isSelected;
 
+    /**
+     * See ContentHash, 0 if unknown.
+     */
+    private long contentHash = 0L;
+
+    /**
+     * Key of the artwork in ArtworkCache, see ArtworkKey, null if not yet loaded.
+     * Songs with the same embedded picture have the same key.
+     * The image itself is not referenced, so that it can be evicted from the cache.
+     */
+    private String artworkKey = null;
+
     public Song(
             int id,
             String title,
@@ -41,14 +51,9 @@ public final class Song implements Comparable<Song> {
         this.lengthInSeconds = new SimpleIntegerProperty(lengthInSeconds);
         this.playCount = new SimpleIntegerProperty(playCount);
         this.playDate = new SimpleObjectProperty<>(playDate);
-        this.artwork = new SimpleObjectProperty<>(null);
         this.file = new SimpleObjectProperty<>(file);
 
-        int minutes = lengthInSeconds / 60;
-        int seconds = lengthInSeconds % 60;
-        var displayLength = minutes + ":" + (seconds < 10 ? "0" + seconds : Integer.toString(seconds));
-
-        this.displayLength = new SimpleStringProperty(displayLength);
+        this.displayLength = new SimpleStringProperty(toDisplayLength(lengthInSeconds));
         this.isPlaying = new SimpleBooleanProperty(false);
         this.isSelected = new SimpleBooleanProperty(false);
     }
@@ -87,6 +92,7 @@ public final class Song implements Comparable<Song> {
 
     public void setLengthInSeconds(int lengthInSeconds) {
         this.lengthInSeconds.set(lengthInSeconds);
+        this.displayLength.set(toDisplayLength(lengthInSeconds));
     }
 
     public int getPlayCount() {
@@ -113,16 +119,12 @@ public final class Song implements Comparable<Song> {
         this.playDate.set(playDate);
     }
 
-    public Image getArtwork() {
-        return artwork.get();
-    }
-
-    public ObjectProperty<Image> artworkProperty() {
-        return artwork;
+    public String getArtworkKey() {
+        return artworkKey;
     }
 
-    public void setArtwork(Image artwork) {
-        this.artwork.set(artwork);
+    public void setArtworkKey(String artworkKey) {
+        this.artworkKey = artworkKey;
     }
 
     public Path getFile() {
@@ -137,6 +139,14 @@ public final class Song implements Comparable<Song> {
         this.file.set(file);
     }
 
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
     public String getDisplayLength() {
         return displayLength.get();
     }
@@ -169,6 +179,13 @@ public final class Song implements Comparable<Song> {
         this.isSelected.set(isSelected);
     }
 
+    private static String toDisplayLength(int lengthInSeconds) {
+        int minutes = lengthInSeconds / 60;
+        int seconds = lengthInSeconds % 60;
+
+        return minutes + ":" + (seconds < 10 ? "0" + seconds : Integer.toString(seconds));
+    }
+
     @Override
     public int compareTo(Song other) {
         return getTitle().compareTo(other.getTitle());
@@ -0,0 +1,362 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model.serializable;
+
+import app.musicplayer.model.IntMap;
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Compact binary alternative to the JSON library file.
+ * Song fields are stored as columns of primitives and all strings are stored once
+ * in a string table, so loading needs no text parsing or boxing.
+ * Song file paths are split into directory and file name, so songs in the same directory share the directory string.
+ *
+ * <pre>
+ * header:     magic "MPLB", version, numSongs, numPlaylists, nextSongId, numStrings, journalSequence (long)
+ * columns:    playDateSeconds long[numSongs], contentHash long[numSongs],
+ *             id, lengthInSeconds, playCount, playDateNanos, title, directory, fileName int[numSongs]
+ *             (title, directory and fileName are string table indices)
+ * strings:    byteOffset int[numStrings + 1], UTF-8 bytes
+ * playlists:  (id, type, title, numSongs, songIDs int[numSongs])[numPlaylists]
+ * </pre>
+ *
+ * All values are big endian.
+ * Version 1 files have no journalSequence and no playlist ids, they can still be read.
+ */
+public final class BinaryLibraryFormat {
+
+    private static final int MAGIC = 0x4D504C42;
+
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE_V1 = 6 * Integer.BYTES;
+
+    /**
+     * Bytes of all columns of a single song.
+     */
+    private static final int SONG_SIZE = 2 * Long.BYTES + 7 * Integer.BYTES;
+
+    /**
+     * Bytes of a playlist without its song ids, version 1 playlists are smaller.
+     */
+    private static final int MIN_PLAYLIST_SIZE_V1 = 3 * Integer.BYTES;
+
+    private BinaryLibraryFormat() { }
+
+    /**
+     * @return true if [file] starts with the binary library magic number
+     */
+    public static boolean isBinaryLibraryFile(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(Integer.BYTES);
+
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+
+            return buffer.position() == Integer.BYTES && buffer.getInt(0) == MAGIC;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void write(Library library, Path file) throws IOException {
+        var songs = List.copyOf(library.getSongs());
+        int numSongs = songs.size();
+
+        var strings = new StringTable();
+
+        int[] titles = new int[numSongs];
+        int[] directories = new int[numSongs];
+        int[] fileNames = new int[numSongs];
+
+        for (int i = 0; i < numSongs; i++) {
+            var path = songs.get(i).getFile().toAbsolutePath();
+            var parent = path.getParent();
+
+            titles[i] = strings.indexOf(songs.get(i).getTitle());
+            directories[i] = strings.indexOf(parent == null ? "" : parent.toString());
+            fileNames[i] = strings.indexOf(path.getFileName().toString());
+        }
+
+        var playlists = library.getPlaylists();
+        int[] playlistTitles = new int[playlists.size()];
+
+        for (int i = 0; i < playlists.size(); i++) {
+            playlistTitles[i] = strings.indexOf(playlists.get(i).getTitle());
+        }
+
+        Serializer.writeAtomically(file, stream -> {
+            var out = new DataOutputStream(stream);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numSongs);
+            out.writeInt(playlists.size());
+            out.writeInt(library.getNextSongId());
+            out.writeInt(strings.size());
+            out.writeLong(library.getJournalSequence());
+
+            for (Song song : songs) {
+                out.writeLong(song.getPlayDate().toEpochSecond(ZoneOffset.UTC));
+            }
+
+            for (Song song : songs) {
+                out.writeLong(song.getContentHash());
+            }
+
+            for (Song song : songs) {
+                out.writeInt(song.getId());
+            }
+
+            for (Song song : songs) {
+                out.writeInt(song.getLengthInSeconds());
+            }
+
+            for (Song song : songs) {
+                out.writeInt(song.getPlayCount());
+            }
+
+            for (Song song : songs) {
+                out.writeInt(song.getPlayDate().getNano());
+            }
+
+            writeInts(out, titles);
+            writeInts(out, directories);
+            writeInts(out, fileNames);
+
+            strings.writeTo(out);
+
+            for (int i = 0; i < playlists.size(); i++) {
+                var playlist = playlists.get(i);
+                int[] songIds = playlist.getSongIds();
+
+                out.writeInt(playlist.getId());
+                out.writeInt(playlist.getType().ordinal());
+                out.writeInt(playlistTitles[i]);
+                out.writeInt(songIds.length);
+
+                writeInts(out, songIds);
+            }
+
+            out.flush();
+        });
+    }
+
+    /**
+     * Maps [file] into memory and reconstructs the library from it.
+     */
+    public static Library read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return read(buffer);
+        }
+    }
+
+    private static Library read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE_V1 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a binary library file");
+
+        int version = buffer.getInt();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported binary library version: " + version);
+
+        int numSongs = buffer.getInt();
+        int numPlaylists = buffer.getInt();
+        int nextSongId = buffer.getInt();
+        int numStrings = buffer.getInt();
+
+        if (numSongs < 0 || numPlaylists < 0 || numStrings < 0)
+            throw new IOException("Corrupt binary library header");
+
+        try {
+            long journalSequence = version >= 2 ? buffer.getLong() : 0L;
+
+            // checked before allocating, so that corrupt counts cannot exhaust the heap
+            long minSize = numSongs * (long) SONG_SIZE + (numStrings + 1L) * Integer.BYTES + numPlaylists * (long) MIN_PLAYLIST_SIZE_V1;
+
+            if (minSize > buffer.remaining())
+                throw new IOException("Corrupt binary library header: needs at least " + minSize + " bytes, " + buffer.remaining() + " remaining");
+
+            long[] playDateSeconds = readLongs(buffer, numSongs);
+            long[] contentHashes = readLongs(buffer, numSongs);
+            int[] ids = readInts(buffer, numSongs);
+            int[] lengths = readInts(buffer, numSongs);
+            int[] playCounts = readInts(buffer, numSongs);
+            int[] playDateNanos = readInts(buffer, numSongs);
+            int[] titles = readInts(buffer, numSongs);
+            int[] directories = readInts(buffer, numSongs);
+            int[] fileNames = readInts(buffer, numSongs);
+
+            String[] strings = readStrings(buffer, numStrings);
+
+            // directories are shared by many songs, so resolve each one only once
+            Path[] directoryPaths = new Path[numStrings];
+
+            var songsById = new IntMap<Song>(numSongs);
+
+            for (int i = 0; i < numSongs; i++) {
+                // libraries created by older versions may contain duplicate ids, the first song wins
+                if (songsById.containsKey(ids[i]))
+                    continue;
+
+                int dirIndex = directories[i];
+
+                if (directoryPaths[dirIndex] == null) {
+                    directoryPaths[dirIndex] = Paths.get(strings[dirIndex]);
+                }
+
+                var song = new Song(
+                        ids[i],
+                        strings[titles[i]],
+                        lengths[i],
+                        playCounts[i],
+                        LocalDateTime.ofEpochSecond(playDateSeconds[i], playDateNanos[i], ZoneOffset.UTC),
+                        directoryPaths[dirIndex].resolve(strings[fileNames[i]])
+                );
+
+                song.setContentHash(contentHashes[i]);
+
+                songsById.put(ids[i], song);
+            }
+
+            var types = Playlist.PlaylistType.values();
+            List<Playlist> playlists = new ArrayList<>(numPlaylists);
+
+            for (int i = 0; i < numPlaylists; i++) {
+                int id = version >= 2 ? buffer.getInt() : -1;
+                var playlist = new Playlist(id, types[buffer.getInt()], strings[buffer.getInt()]);
+                int size = buffer.getInt();
+
+                if (size < 0 || size * (long) Integer.BYTES > buffer.remaining())
+                    throw new IOException("Corrupt binary library playlist size: " + size);
+
+                List<Song> playlistSongs = new ArrayList<>(size);
+
+                for (int j = 0; j < size; j++) {
+                    var song = songsById.get(buffer.getInt());
+
+                    if (song != null) {
+                        playlistSongs.add(song);
+                    }
+                }
+
+                playlist.addSongs(playlistSongs);
+
+                playlists.add(playlist);
+            }
+
+            var library = new Library(playlists, nextSongId);
+            library.setJournalSequence(journalSequence);
+
+            return library;
+
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | DateTimeException | InvalidPathException e) {
+            throw new IOException("Corrupt binary library file", e);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    private static long[] readLongs(ByteBuffer buffer, int length) {
+        long[] values = new long[length];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + length * Long.BYTES);
+        return values;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer, int numStrings) throws IOException {
+        int[] offsets = readInts(buffer, numStrings + 1);
+
+        if (offsets[0] != 0)
+            throw new IOException("Corrupt binary library string table: first offset is " + offsets[0]);
+
+        for (int i = 0; i < numStrings; i++) {
+            if (offsets[i + 1] < offsets[i])
+                throw new IOException("Corrupt binary library string table: offset " + (i + 1) + " is less than the previous one");
+        }
+
+        if (offsets[numStrings] > buffer.remaining())
+            throw new IOException("Corrupt binary library string table: " + offsets[numStrings] + " bytes of strings, " + buffer.remaining() + " remaining");
+
+        byte[] data = new byte[offsets[numStrings]];
+        buffer.get(data);
+
+        String[] strings = new String[numStrings];
+
+        for (int i = 0; i < numStrings; i++) {
+            strings[i] = new String(data, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+
+        return strings;
+    }
+
+    /**
+     * Deduplicates strings and assigns each distinct string an index in insertion order.
+     */
+    private static final class StringTable {
+
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<byte[]> encoded = new ArrayList<>();
+
+        private int indexOf(String value) {
+            return indices.computeIfAbsent(value, s -> {
+                encoded.add(s.getBytes(StandardCharsets.UTF_8));
+                return encoded.size() - 1;
+            });
+        }
+
+        private int size() {
+            return encoded.size();
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            int offset = 0;
+
+            out.writeInt(offset);
+
+            for (byte[] bytes : encoded) {
+                offset += bytes.length;
+                out.writeInt(offset);
+            }
+
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+        }
+    }
+}
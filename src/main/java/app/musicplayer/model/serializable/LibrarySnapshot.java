@@ -0,0 +1,29 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model.serializable;
+
+import app.musicplayer.model.Playlist.PlaylistType;
+import app.musicplayer.model.Song;
+
+import java.util.List;
+
+/**
+ * What {@link Serializer} needs to write a library on another thread.
+ * Songs are not copied, only referenced, and are read while they are written.
+ * So the file may also contain song changes made after [journalSequence],
+ * which is harmless as replaying their journal records again leads to the same values.
+ */
+public record LibrarySnapshot(
+        List<Song> songs,
+        List<PlaylistSnapshot> playlists,
+        int nextSongId,
+        long journalSequence
+) {
+
+    public record PlaylistSnapshot(int id, PlaylistType type, String title, int[] songIds) { }
+}
@@ -0,0 +1,15 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model.serializable;
+
+import java.util.List;
+
+public record SerializableFingerprints(
+        List<String> roots,
+        List<SerializableFingerprint> files
+) { }
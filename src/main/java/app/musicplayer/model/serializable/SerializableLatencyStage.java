@@ -0,0 +1,24 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model.serializable;
+
+import java.util.List;
+
+/**
+ * Latencies of one stage of starting playback, in milliseconds from the request.
+ * [samples] are oldest first.
+ */
+public record SerializableLatencyStage(
+        String stage,
+        long numRecorded,
+        double p50,
+        double p95,
+        double p99,
+        double max,
+        List<Double> samples
+) { }
@@ -7,12 +7,19 @@
 
 package app.musicplayer.model.serializable;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
 import java.util.List;
 
 /**
+ * Songs are written last, so that a reader can show playlists before all songs are read.
+ *
  * @author Almas Baim (https://github.com/AlmasB)
  */
+@JsonPropertyOrder({ "nextSongId", "journalSequence", "playlists", "songs" })
 public record SerializableLibrary(
         List<SerializableSong> songs,
-        List<SerializablePlaylist> playlists
+        List<SerializablePlaylist> playlists,
+        int nextSongId,
+        long journalSequence
 ) { }
@@ -15,6 +15,7 @@ import java.util.List;
  * @author Almas Baim (https://github.com/AlmasB)
  */
 public record SerializablePlaylist(
+        int id,
         Playlist.PlaylistType type,
         String title,
         List<Integer> songIDs
@@ -18,5 +18,6 @@ public record SerializableSong(
         int lengthInSeconds,
         int playCount,
         LocalDateTime playDate,
-        String filePath
+        String filePath,
+        long contentHash
 ) { }
@@ -0,0 +1,18 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model.serializable;
+
+/**
+ * [artworkKey] is empty if the file has no artwork.
+ */
+public record SerializableThumbnail(
+        String filePath,
+        long size,
+        long lastModified,
+        String artworkKey
+) { }
@@ -7,28 +7,53 @@
 
 package app.musicplayer.model.serializable;
 
+import app.musicplayer.library.FileFingerprint;
+import app.musicplayer.library.FingerprintIndex;
+import app.musicplayer.model.IntMap;
 import app.musicplayer.model.Library;
 import app.musicplayer.model.Playlist;
 import app.musicplayer.model.Song;
+import app.musicplayer.playback.PlaybackLatencyMonitor;
 import com.almasb.fxgl.core.collection.PropertyMap;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
 /**
  * @author Almas Baim (https://github.com/AlmasB)
  */
 public final class Serializer {
 
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     private static final ObjectMapper mapper = new ObjectMapper();
 
     static {
         mapper.registerModule(new JavaTimeModule());
+
+        // writers decide when the underlying stream is closed
+        mapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     public static SerializableSong toSerializable(Song song) {
@@ -38,12 +63,13 @@ public final class Serializer {
                 song.getLengthInSeconds(),
                 song.getPlayCount(),
                 song.getPlayDate(),
-                song.getFile().toAbsolutePath().toString()
+                song.getFile().toAbsolutePath().toString(),
+                song.getContentHash()
         );
     }
 
     public static Song fromSerializable(SerializableSong song) {
-        return new Song(
+        var result = new Song(
                 song.id(),
                 song.title(),
                 song.lengthInSeconds(),
@@ -51,46 +77,228 @@ public final class Serializer {
                 song.playDate(),
                 Paths.get(song.filePath())
         );
+
+        result.setContentHash(song.contentHash());
+
+        return result;
     }
 
     public static SerializablePlaylist toSerializable(Playlist playlist) {
-        playlist.restoreFromShuffle();
-
         return new SerializablePlaylist(
+                playlist.getId(),
                 playlist.getType(),
                 playlist.getTitle(),
-                playlist.getSongs().stream().map(Song::getId).toList()
+                Arrays.stream(playlist.getSongIds()).boxed().toList()
         );
     }
 
     public static Playlist fromSerializable(SerializablePlaylist playlist) {
         return new Playlist(
-                playlist.type(), playlist.title()
+                playlist.id(), playlist.type(), playlist.title()
         );
     }
 
     public static SerializableLibrary toSerializable(Library library) {
         return new SerializableLibrary(
-                library.getSongs().stream().map(Serializer::toSerializable).toList(),
-                library.getPlaylists().stream().map(Serializer::toSerializable).toList()
+                getLibrarySongs(library).stream().map(Serializer::toSerializable).toList(),
+                library.getPlaylists().stream().map(Serializer::toSerializable).toList(),
+                library.getNextSongId(),
+                library.getJournalSequence()
         );
     }
 
-    // TODO:
-    public static void writeToFile(Library library, Path file) {
-        try {
-            var lib = Serializer.toSerializable(library);
+    /**
+     * Reconstructs a library, playlists reference songs by id.
+     * Songs are created in parallel, then each playlist is filled with a single list change.
+     */
+    public static Library fromSerializable(SerializableLibrary library) {
+        Song[] songs = library.songs()
+                .parallelStream()
+                .map(Serializer::fromSerializable)
+                .toArray(Song[]::new);
 
-            var writer = mapper.writerWithDefaultPrettyPrinter();
+        var songsById = new IntMap<Song>(songs.length);
+
+        for (Song song : songs) {
+            // libraries created by older versions may contain duplicate ids, the first song wins
+            if (!songsById.containsKey(song.getId())) {
+                songsById.put(song.getId(), song);
+            }
+        }
+
+        var playlists = library.playlists()
+                .stream()
+                .map(p -> {
+                    List<Song> playlistSongs = new ArrayList<>(p.songIDs().size());
+
+                    for (int id : p.songIDs()) {
+                        var song = songsById.get(id);
+
+                        if (song != null) {
+                            playlistSongs.add(song);
+                        }
+                    }
+
+                    var playlist = fromSerializable(p);
+                    playlist.addSongs(playlistSongs);
+
+                    return playlist;
+                })
+                .toList();
+
+        var result = new Library(playlists, library.nextSongId());
+        result.setJournalSequence(library.journalSequence());
+
+        return result;
+    }
+
+    /**
+     * Library songs are stored in the order of the library playlist.
+     */
+    private static List<Song> getLibrarySongs(Library library) {
+        int[] ids = library.getLibraryPlaylist().getSongIds();
+
+        List<Song> songs = new ArrayList<>(ids.length);
+
+        for (int id : ids) {
+            library.findSongById(id).ifPresent(songs::add);
+        }
+
+        return songs;
+    }
+
+    public static SerializableFingerprints toSerializable(FingerprintIndex index) {
+        return new SerializableFingerprints(
+                index.getRoots().stream().map(FingerprintIndex::key).toList(),
+                index.toMap()
+                        .entrySet()
+                        .stream()
+                        .map(entry -> new SerializableFingerprint(entry.getKey(), entry.getValue().size(), entry.getValue().lastModified()))
+                        .toList()
+        );
+    }
+
+    public static FingerprintIndex fromSerializable(SerializableFingerprints fingerprints) {
+        var index = new FingerprintIndex();
+
+        fingerprints.roots().forEach(root -> index.addRoot(Paths.get(root)));
+        fingerprints.files().forEach(f -> index.put(Paths.get(f.filePath()), new FileFingerprint(f.size(), f.lastModified())));
+
+        return index;
+    }
 
-            String json = writer.writeValueAsString(lib);
+    public static void writeToFile(Library library, Path file) {
+        writeToFile(library, file, false);
+    }
 
-            Files.writeString(file, json);
+    /**
+     * Streams [library] as JSON into a temporary file, which then atomically replaces [file].
+     * Songs are written one at a time, so memory use does not depend on the library size.
+     * If writing fails, [file] is left untouched.
+     */
+    public static void writeToFile(Library library, Path file, boolean isPretty) {
+        try {
+            writeToFile(snapshot(library), file, isPretty);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Captures what is needed to write [library] on another thread, without copying its songs.
+     * Must be called on the thread that modifies the library.
+     */
+    public static LibrarySnapshot snapshot(Library library) {
+        return new LibrarySnapshot(
+                getLibrarySongs(library),
+                library.getPlaylists()
+                        .stream()
+                        .map(p -> new LibrarySnapshot.PlaylistSnapshot(p.getId(), p.getType(), p.getTitle(), p.getSongIds()))
+                        .toList(),
+                library.getNextSongId(),
+                library.getJournalSequence()
+        );
+    }
+
+    /**
+     * Streams [library] like {@link #writeToFile(Library, Path, boolean)}, e.g. on a background thread.
+     * Unlike the other writers, this one throws on failure, so that callers know whether [file] was replaced.
+     */
+    public static void writeToFile(LibrarySnapshot library, Path file, boolean isPretty) throws IOException {
+        writeAtomically(file, out -> {
+            try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+                if (isPretty) {
+                    gen.useDefaultPrettyPrinter();
+                }
+
+                gen.writeStartObject();
+
+                gen.writeNumberField("nextSongId", library.nextSongId());
+                gen.writeNumberField("journalSequence", library.journalSequence());
+
+                gen.writeArrayFieldStart("playlists");
+                for (var playlist : library.playlists()) {
+                    gen.writeStartObject();
+                    gen.writeNumberField("id", playlist.id());
+                    gen.writeStringField("type", playlist.type().name());
+                    gen.writeStringField("title", playlist.title());
+
+                    gen.writeArrayFieldStart("songIDs");
+                    for (int id : playlist.songIds()) {
+                        gen.writeNumber(id);
+                    }
+                    gen.writeEndArray();
+
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+
+                gen.writeArrayFieldStart("songs");
+                for (Song song : library.songs()) {
+                    mapper.writeValue(gen, toSerializable(song));
+                }
+                gen.writeEndArray();
+
+                gen.writeEndObject();
+            }
+        });
+    }
+
+    /**
+     * Writes to a temporary file next to [file], forces it to disk and then moves it over [file],
+     * so that a crash mid-write never leaves a truncated [file].
+     */
+    public static void writeAtomically(Path file, OutputWriter writer) throws IOException {
+        var tmpFile = file.toAbsolutePath().resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                var out = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+
+                writer.write(out);
+                out.flush();
+
+                channel.force(true);
+            }
+
+            try {
+                Files.move(tmpFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, file, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    public interface OutputWriter {
+
+        /**
+         * Implementations should not close [out].
+         */
+        void write(OutputStream out) throws IOException;
+    }
+
     public static SerializableLibrary readLibraryFromFile(Path file) {
         try {
             var lib = mapper.readValue(file.toFile(), SerializableLibrary.class);
@@ -103,17 +311,152 @@ public final class Serializer {
         
         return new SerializableLibrary(
                 Collections.emptyList(),
-                Collections.emptyList()
+                Collections.emptyList(),
+                0,
+                0L
         );
     }
 
-    public static void writeToFile(PropertyMap map, Path file) {
+    /**
+     * Reads a JSON library file incrementally, passing its parts to [listener] in file order,
+     * so that a caller can use the first songs before the rest of the file is read.
+     * Files written by older versions have songs before playlists.
+     */
+    public static void readLibraryFromFile(Path file, LibraryReadListener listener) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(file.toFile())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Not a JSON library file: " + file);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var fieldName = parser.getCurrentName();
+                parser.nextToken();
+
+                switch (fieldName) {
+                    case "nextSongId" -> listener.onNextSongId(parser.getIntValue());
+
+                    case "journalSequence" -> listener.onJournalSequence(parser.getLongValue());
+
+                    case "playlists" -> {
+                        List<SerializablePlaylist> playlists = new ArrayList<>();
+
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            playlists.add(mapper.readValue(parser, SerializablePlaylist.class));
+                        }
+
+                        listener.onPlaylists(playlists);
+                    }
+
+                    case "songs" -> {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            listener.onSong(mapper.readValue(parser, SerializableSong.class));
+                        }
+                    }
+
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Callbacks are invoked on the reading thread.
+     */
+    public interface LibraryReadListener {
+
+        void onPlaylists(List<SerializablePlaylist> playlists);
+
+        void onSong(SerializableSong song);
+
+        default void onNextSongId(int nextSongId) { }
+
+        default void onJournalSequence(long journalSequence) { }
+    }
+
+    public static void writeToFile(FingerprintIndex index, Path file) {
+        try {
+            var fingerprints = toSerializable(index);
+
+            writeAtomically(file, out -> mapper.writeValue(out, fingerprints));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static FingerprintIndex readFingerprintsFromFile(Path file) {
+        try {
+            var fingerprints = mapper.readValue(file.toFile(), SerializableFingerprints.class);
+
+            return fromSerializable(fingerprints);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return new FingerprintIndex();
+    }
+
+    public static void writeToFile(SerializableThumbnails thumbnails, Path file) {
+        try {
+            writeAtomically(file, out -> mapper.writeValue(out, thumbnails));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static SerializableThumbnails readThumbnailsFromFile(Path file) {
+        try {
+            return mapper.readValue(file.toFile(), SerializableThumbnails.class);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return new SerializableThumbnails(Collections.emptyList());
+    }
+
+    public static SerializablePlaybackLatency toSerializable(PlaybackLatencyMonitor monitor) {
+        List<SerializableLatencyStage> stages = new ArrayList<>();
+
+        for (PlaybackLatencyMonitor.Stage stage : PlaybackLatencyMonitor.Stage.values()) {
+            var histogram = monitor.getHistogram(stage);
+            var percentiles = histogram.getPercentiles();
+
+            stages.add(new SerializableLatencyStage(
+                    stage.toString(),
+                    histogram.getNumRecorded(),
+                    toMillis(percentiles.p50()),
+                    toMillis(percentiles.p95()),
+                    toMillis(percentiles.p99()),
+                    toMillis(percentiles.max()),
+                    Arrays.stream(histogram.getSamples()).mapToObj(Serializer::toMillis).toList()
+            ));
+        }
+
+        return new SerializablePlaybackLatency(stages);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    public static void writeToFile(PlaybackLatencyMonitor monitor, Path file) {
+        try {
+            writeAtomically(file, out -> mapper.writeValue(out, toSerializable(monitor)));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void writeToFile(PropertyMap properties, Path file) {
         try {
             var writer = mapper.writerWithDefaultPrettyPrinter();
 
-            String json = writer.writeValueAsString(map.toStringMap());
+            var map = properties.toStringMap();
 
-            Files.writeString(file, json);
+            writeAtomically(file, out -> writer.writeValue(out, map));
 
         } catch (Exception e) {
             e.printStackTrace();
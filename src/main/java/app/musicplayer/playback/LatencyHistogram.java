@@ -0,0 +1,105 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.playback;
+
+import java.util.Arrays;
+
+/**
+ * The most recent [capacity] latency samples, so that percentiles reflect current behaviour rather than
+ * the whole session. Recording takes constant time and does not allocate, percentiles are computed on demand.
+ * Not thread-safe.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Ring buffer, [next] is the index the next sample is written to.
+     */
+    private final long[] samples;
+    private int size = 0;
+    private int next = 0;
+
+    private long numRecorded = 0L;
+
+    public LatencyHistogram(int capacity) {
+        samples = new long[capacity];
+    }
+
+    public void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+
+        if (size < samples.length) {
+            size++;
+        }
+
+        numRecorded++;
+    }
+
+    /**
+     * @return number of samples recorded, including those no longer in the window
+     */
+    public long getNumRecorded() {
+        return numRecorded;
+    }
+
+    /**
+     * @return samples in the window in nanoseconds, oldest first
+     */
+    public long[] getSamples() {
+        long[] result = new long[size];
+        int start = (next - size + samples.length) % samples.length;
+
+        for (int i = 0; i < size; i++) {
+            result[i] = samples[(start + i) % samples.length];
+        }
+
+        return result;
+    }
+
+    public Percentiles getPercentiles() {
+        long[] sorted = getSamples();
+        Arrays.sort(sorted);
+
+        return new Percentiles(
+                sorted.length,
+                percentile(sorted, 50),
+                percentile(sorted, 95),
+                percentile(sorted, 99),
+                sorted.length == 0 ? 0L : sorted[sorted.length - 1]
+        );
+    }
+
+    /**
+     * Nearest-rank method, so the result is always one of the samples.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0)
+            return 0L;
+
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * All values are in nanoseconds, 0 if there are no samples.
+     */
+    public record Percentiles(int numSamples, long p50, long p95, long p99, long max) {
+
+        @Override
+        public String toString() {
+            return String.format("n: %d, p50: %.1f ms, p95: %.1f ms, p99: %.1f ms, max: %.1f ms",
+                    numSamples,
+                    p50 / 1_000_000.0,
+                    p95 / 1_000_000.0,
+                    p99 / 1_000_000.0,
+                    max / 1_000_000.0
+            );
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.playback;
+
+import app.musicplayer.model.Song;
+import javafx.beans.value.ObservableBooleanValue;
+import javafx.beans.value.ObservableNumberValue;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+
+import java.util.*;
+
+/**
+ * Owns all media players: creates them, keeps a few idle ones for reuse and disposes the rest.
+ * A player can only play the media it was created for, so idle players are kept per song:
+ * players warmed up in advance, e.g. for gapless playback, and players recently released,
+ * e.g. when skipping back to the previous song or looping one song.
+ * At most [maxIdlePlayers] idle players are kept, so native resources stay bounded however fast songs are skipped.
+ * Must be used on the JavaFX thread.
+ */
+public final class MediaPlayerPool implements AutoCloseable {
+
+    private final ObservableNumberValue volume;
+    private final ObservableBooleanValue muted;
+    private final int maxIdlePlayers;
+
+    /**
+     * In access order, so the first entry is the least recently used.
+     */
+    private final LinkedHashMap<Song, MediaPlayer> idlePlayers = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Acquired and not yet released.
+     */
+    private final Set<MediaPlayer> playersInUse = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private long numCreated = 0L;
+    private long numReused = 0L;
+    private long numDisposed = 0L;
+
+    /**
+     * @param volume volume of all players, 0.0 to 1.0
+     * @param muted mute state of all players
+     */
+    public MediaPlayerPool(ObservableNumberValue volume, ObservableBooleanValue muted, int maxIdlePlayers) {
+        this.volume = volume;
+        this.muted = muted;
+        this.maxIdlePlayers = maxIdlePlayers;
+    }
+
+    /**
+     * Creating a player opens and buffers its media in the background,
+     * so a player warmed up a few seconds before it is needed starts immediately.
+     * Does nothing if an idle player for [song] already exists.
+     */
+    public void warmUp(Song song) {
+        if (idlePlayers.containsKey(song))
+            return;
+
+        addIdle(song, create(song));
+    }
+
+    /**
+     * @return an idle player for [song] if there is one, otherwise a new player
+     */
+    public MediaPlayer acquire(Song song) {
+        var player = idlePlayers.remove(song);
+
+        if (player != null) {
+            numReused++;
+        } else {
+            player = create(song);
+        }
+
+        playersInUse.add(player);
+        return player;
+    }
+
+    /**
+     * Stops [player] and keeps it idle for reuse, or disposes it if it failed.
+     * Callbacks set on the player are cleared, listeners added to its properties must be removed by the caller.
+     */
+    public void release(Song song, MediaPlayer player) {
+        if (!playersInUse.remove(player))
+            return;
+
+        player.setOnEndOfMedia(null);
+        player.setOnReady(null);
+        player.setOnPlaying(null);
+        player.setOnPaused(null);
+        player.setOnStopped(null);
+        player.setOnError(null);
+
+        if (player.getError() != null || player.getStatus() == MediaPlayer.Status.HALTED || idlePlayers.containsKey(song)) {
+            dispose(player);
+            return;
+        }
+
+        player.stop();
+        addIdle(song, player);
+    }
+
+    /**
+     * Disposes the idle player for [song], if any.
+     */
+    public void discard(Song song) {
+        var player = idlePlayers.remove(song);
+
+        if (player != null) {
+            dispose(player);
+        }
+    }
+
+    private MediaPlayer create(Song song) {
+        var player = new MediaPlayer(new Media(song.getFile().toUri().toString()));
+        player.volumeProperty().bind(volume);
+        player.muteProperty().bind(muted);
+
+        numCreated++;
+        return player;
+    }
+
+    private void addIdle(Song song, MediaPlayer player) {
+        idlePlayers.put(song, player);
+
+        Iterator<MediaPlayer> it = idlePlayers.values().iterator();
+
+        while (idlePlayers.size() > maxIdlePlayers && it.hasNext()) {
+            var idlePlayer = it.next();
+            it.remove();
+
+            dispose(idlePlayer);
+        }
+    }
+
+    private void dispose(MediaPlayer player) {
+        player.volumeProperty().unbind();
+        player.muteProperty().unbind();
+        player.stop();
+        player.dispose();
+
+        numDisposed++;
+    }
+
+    public Stats getStats() {
+        return new Stats(numCreated - numDisposed, idlePlayers.size(), numCreated, numReused, numDisposed);
+    }
+
+    /**
+     * Disposes all players, including those still in use.
+     */
+    @Override
+    public void close() {
+        idlePlayers.values().forEach(this::dispose);
+        idlePlayers.clear();
+
+        playersInUse.forEach(this::dispose);
+        playersInUse.clear();
+    }
+
+    /**
+     * @param numLive players created and not yet disposed, in use or idle
+     */
+    public record Stats(long numLive, int numIdle, long numCreated, long numReused, long numDisposed) {
+
+        @Override
+        public String toString() {
+            return String.format("live: %d (idle: %d), created: %d, reused: %d, disposed: %d",
+                    numLive,
+                    numIdle,
+                    numCreated,
+                    numReused,
+                    numDisposed
+            );
+        }
+    }
+}
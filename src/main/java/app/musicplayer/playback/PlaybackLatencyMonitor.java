@@ -0,0 +1,154 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.playback;
+
+import com.almasb.fxgl.logging.Logger;
+import javafx.beans.value.ChangeListener;
+import javafx.scene.media.MediaPlayer;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Measures how long it takes for a song the user asked to play to start playing.
+ * All stages are measured with System.nanoTime() from the request, e.g. a double-click on a song.
+ * A start that is superseded by another song before it reaches PLAYING is not recorded.
+ * Must be used on the JavaFX thread.
+ */
+public final class PlaybackLatencyMonitor {
+
+    private static final Logger log = Logger.get(PlaybackLatencyMonitor.class);
+
+    public enum Stage {
+        /**
+         * A player for the song was created, or taken from the pool.
+         */
+        PLAYER_ACQUIRED,
+
+        /**
+         * The media was opened and the player can start.
+         */
+        READY,
+
+        /**
+         * The player reported it is playing, the closest observable point to audible output.
+         */
+        PLAYING
+    }
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    /**
+     * Time of the request being measured, or -1 if none.
+     */
+    private long requestNanos = -1L;
+
+    private MediaPlayer player = null;
+    private boolean isReadyRecorded = false;
+
+    private final ChangeListener<MediaPlayer.Status> statusListener = (o, oldStatus, status) -> onStatusChanged(status);
+
+    /**
+     * @param windowSize number of most recent starts percentiles are computed over
+     */
+    public PlaybackLatencyMonitor(int windowSize) {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram(windowSize));
+        }
+    }
+
+    /**
+     * Starts measuring a request made at [requestNanos], abandoning any unfinished one.
+     */
+    public void onRequested(long requestNanos) {
+        cancel();
+
+        this.requestNanos = requestNanos;
+    }
+
+    /**
+     * Call for every player that becomes the current one.
+     * Only the first player after a request is measured, another one means the user moved on.
+     */
+    public void onPlayerAcquired(MediaPlayer player) {
+        if (requestNanos < 0 || this.player != null) {
+            cancel();
+            return;
+        }
+
+        record(Stage.PLAYER_ACQUIRED);
+
+        this.player = player;
+        player.statusProperty().addListener(statusListener);
+
+        // players from the pool may already be ready
+        onStatusChanged(player.getStatus());
+    }
+
+    private void onStatusChanged(MediaPlayer.Status status) {
+        if (status == null)
+            return;
+
+        switch (status) {
+            case READY, PAUSED, STOPPED -> recordReady();
+
+            case PLAYING -> {
+                recordReady();
+                record(Stage.PLAYING);
+
+                log.debug("Playback started in " + (System.nanoTime() - requestNanos) / 1_000_000 + " ms");
+
+                cancel();
+            }
+
+            case HALTED, DISPOSED -> cancel();
+
+            default -> { }
+        }
+    }
+
+    private void recordReady() {
+        if (isReadyRecorded)
+            return;
+
+        isReadyRecorded = true;
+        record(Stage.READY);
+    }
+
+    private void record(Stage stage) {
+        histograms.get(stage).record(System.nanoTime() - requestNanos);
+    }
+
+    /**
+     * Stops measuring the current request, if any.
+     */
+    public void cancel() {
+        if (player != null) {
+            player.statusProperty().removeListener(statusListener);
+            player = null;
+        }
+
+        requestNanos = -1L;
+        isReadyRecorded = false;
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+
+        for (Stage stage : Stage.values()) {
+            sb.append(stage).append(": ").append(histograms.get(stage).getPercentiles()).append("\n");
+        }
+
+        return sb.toString();
+    }
+}
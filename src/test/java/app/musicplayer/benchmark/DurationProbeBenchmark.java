@@ -0,0 +1,148 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.benchmark;
+
+import app.musicplayer.library.DurationProbe;
+import app.musicplayer.library.ImportEngine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.logging.LogManager;
+
+/**
+ * Compares the header-only {@link DurationProbe} against a full jaudiotagger parse
+ * on all supported files in a directory.
+ * Reports throughput, bytes read per file and the number of files where the two disagree.
+ * Bytes read by jaudiotagger are taken from /proc/self/io, so they are only available on Linux.
+ *
+ * Usage: DurationProbeBenchmark musicDirectory [numRounds]
+ */
+public final class DurationProbeBenchmark {
+
+    private static final Path PROC_IO = Paths.get("/proc/self/io");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: DurationProbeBenchmark musicDirectory [numRounds]");
+            return;
+        }
+
+        // disable java.util.logging.Logger from jaudiotagger lib
+        LogManager.getLogManager().reset();
+
+        var directory = Paths.get(args[0]);
+        int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        List<Path> files = new ImportEngine(1, false).findSupportedFiles(directory);
+
+        System.out.printf("Files: %d, rounds: %d%n", files.size(), numRounds);
+
+        if (files.isEmpty())
+            return;
+
+        // the first round of each warms up the JIT and the OS page cache
+        for (int round = 0; round <= numRounds; round++) {
+            boolean isWarmUp = round == 0;
+
+            long probeBytesBefore = DurationProbe.getBytesRead();
+            long probeIOBefore = readProcessBytesRead();
+            long probeStart = System.nanoTime();
+
+            for (Path file : files) {
+                DurationProbe.probe(file);
+            }
+
+            long probeNanos = System.nanoTime() - probeStart;
+            long probeBytes = DurationProbe.getBytesRead() - probeBytesBefore;
+            long probeIOBytes = readProcessBytesRead() - probeIOBefore;
+
+            long tagIOBefore = readProcessBytesRead();
+            long tagStart = System.nanoTime();
+
+            for (Path file : files) {
+                try {
+                    ImportEngine.readTrackLength(file);
+                } catch (Exception e) {
+                    // counted as processed, same as in the import
+                }
+            }
+
+            long tagNanos = System.nanoTime() - tagStart;
+            long tagIOBytes = readProcessBytesRead() - tagIOBefore;
+
+            if (isWarmUp)
+                continue;
+
+            System.out.printf("Round %d%n", round);
+            printResult("  probe", files.size(), probeNanos, probeBytes, probeIOBytes);
+            printResult("  jaudiotagger", files.size(), tagNanos, -1, tagIOBytes);
+            System.out.printf("  speedup: %.1fx%n", (double) tagNanos / probeNanos);
+        }
+
+        int numMismatches = 0;
+        int numProbeFailures = 0;
+
+        for (Path file : files) {
+            int probed = DurationProbe.probe(file);
+
+            if (probed == DurationProbe.UNKNOWN) {
+                numProbeFailures++;
+                continue;
+            }
+
+            try {
+                // allow for rounding differences
+                if (Math.abs(probed - ImportEngine.readTrackLength(file)) > 1) {
+                    numMismatches++;
+                }
+            } catch (Exception e) {
+                // jaudiotagger cannot read it, nothing to compare with
+            }
+        }
+
+        System.out.printf("Probe failures (fall back to jaudiotagger): %d, length mismatches: %d%n", numProbeFailures, numMismatches);
+    }
+
+    private static void printResult(String name, int numFiles, long nanos, long bytesCounted, long ioBytes) {
+        double seconds = nanos / 1_000_000_000.0;
+
+        System.out.printf("%s: %.0f files/s, %.3f ms/file", name, numFiles / seconds, nanos / 1_000_000.0 / numFiles);
+
+        if (bytesCounted >= 0) {
+            System.out.printf(", %d bytes/file (counted)", bytesCounted / numFiles);
+        }
+
+        if (ioBytes >= 0) {
+            System.out.printf(", %d bytes/file (process I/O)", ioBytes / numFiles);
+        }
+
+        System.out.println();
+    }
+
+    /**
+     * @return bytes this process has read via read syscalls, or -1 if not available
+     */
+    private static long readProcessBytesRead() {
+        try {
+            if (!Files.isReadable(PROC_IO))
+                return -1;
+
+            for (String line : Files.readAllLines(PROC_IO)) {
+                if (line.startsWith("rchar:")) {
+                    return Long.parseLong(line.substring("rchar:".length()).trim());
+                }
+            }
+        } catch (Exception e) {
+            // not available on this platform
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.benchmark;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.BinaryLibraryFormat;
+import app.musicplayer.model.serializable.Serializer;
+
+import java.lang.ref.Reference;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares loading the same synthetic library from JSON and from {@link BinaryLibraryFormat}.
+ * Reports file size, load time, bytes allocated during the load and heap retained by the loaded library.
+ * JSON parsing alone (without building the model) is reported separately, since the cost of creating
+ * songs and playlists is the same for both formats.
+ * Also checks that both formats load to the same library.
+ *
+ * Usage: LibraryFormatBenchmark [numSongs] [numRounds]
+ */
+public final class LibraryFormatBenchmark {
+
+    private static final int SONGS_PER_ALBUM = 12;
+    private static final int NUM_USER_PLAYLISTS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int numSongs = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        var tmpDir = Files.createTempDirectory("library-format-benchmark");
+        var jsonFile = tmpDir.resolve("library.json");
+        var binaryFile = tmpDir.resolve("library.bin");
+
+        try {
+            var library = createLibrary(numSongs);
+
+            Serializer.writeToFile(library, jsonFile);
+            BinaryLibraryFormat.write(library, binaryFile);
+
+            library = null;
+
+            System.out.printf("Songs: %d, rounds: %d%n", numSongs, numRounds);
+            System.out.printf("File size: JSON %d KB, binary %d KB%n", Files.size(jsonFile) / 1024, Files.size(binaryFile) / 1024);
+
+            var fromJson = loadJson(jsonFile);
+            var fromBinary = BinaryLibraryFormat.read(binaryFile);
+
+            boolean isSame = Serializer.toSerializable(fromJson).equals(Serializer.toSerializable(fromBinary));
+
+            System.out.printf("Formats load the same library: %s%n", isSame);
+
+            fromJson = null;
+            fromBinary = null;
+
+            // the first round of each warms up the JIT and the OS page cache
+            for (int round = 0; round <= numRounds; round++) {
+                var jsonParse = measure(() -> Serializer.readLibraryFromFile(jsonFile));
+                var json = measure(() -> loadJson(jsonFile));
+                var binary = measure(() -> BinaryLibraryFormat.read(binaryFile));
+
+                if (round == 0)
+                    continue;
+
+                System.out.printf("Round %d%n", round);
+                System.out.printf("  JSON (parse only): %s%n", jsonParse);
+                System.out.printf("  JSON:   %s%n", json);
+                System.out.printf("  binary: %s%n", binary);
+                System.out.printf("  speedup: %.1fx, allocated: %.1fx less%n",
+                        (double) json.nanos() / binary.nanos(),
+                        (double) json.allocatedBytes() / binary.allocatedBytes()
+                );
+            }
+        } finally {
+            Files.deleteIfExists(jsonFile);
+            Files.deleteIfExists(binaryFile);
+            Files.deleteIfExists(tmpDir);
+        }
+    }
+
+    private static Library loadJson(Path file) {
+        return Serializer.fromSerializable(Serializer.readLibraryFromFile(file));
+    }
+
+    private static Result measure(Loader loader) throws Exception {
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var memoryBean = ManagementFactory.getMemoryMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        System.gc();
+        long heapBefore = memoryBean.getHeapMemoryUsage().getUsed();
+
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        var loaded = loader.load();
+
+        long nanos = System.nanoTime() - start;
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.gc();
+        long retainedBytes = memoryBean.getHeapMemoryUsage().getUsed() - heapBefore;
+
+        // keep the result reachable until retained heap is measured
+        Reference.reachabilityFence(loaded);
+
+        return new Result(nanos, allocatedBytes, retainedBytes);
+    }
+
+    private static Library createLibrary(int numSongs) {
+        var random = new Random(42);
+        var now = LocalDateTime.now();
+
+        List<Song> songs = new ArrayList<>(numSongs);
+
+        for (int i = 0; i < numSongs; i++) {
+            int album = i / SONGS_PER_ALBUM;
+            var title = String.format("%02d - Track %d", i % SONGS_PER_ALBUM + 1, i);
+
+            var song = new Song(
+                    i,
+                    title,
+                    120 + random.nextInt(300),
+                    random.nextInt(50),
+                    now.minusSeconds(random.nextInt(365 * 24 * 3600)),
+                    Paths.get("/music", "Artist " + album / 5, "Album " + album, title + ".mp3")
+            );
+
+            song.setContentHash(random.nextLong());
+
+            songs.add(song);
+        }
+
+        var library = new Library();
+        library.addSongsNoDuplicateCheck(songs);
+
+        for (int i = 0; i < NUM_USER_PLAYLISTS; i++) {
+            Playlist playlist = library.addPlaylist("Playlist " + i);
+
+            for (int j = 0; j < 100 && numSongs > 0; j++) {
+                playlist.addSong(songs.get(random.nextInt(numSongs)));
+            }
+        }
+
+        return library;
+    }
+
+    private interface Loader {
+        Object load() throws Exception;
+    }
+
+    private record Result(long nanos, long allocatedBytes, long retainedBytes) {
+
+        @Override
+        public String toString() {
+            return String.format("%.1f ms, allocated %.1f MB, retained %.1f MB",
+                    nanos / 1_000_000.0,
+                    allocatedBytes / 1024.0 / 1024.0,
+                    retainedBytes / 1024.0 / 1024.0
+            );
+        }
+    }
+}
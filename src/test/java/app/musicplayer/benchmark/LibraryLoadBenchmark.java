@@ -0,0 +1,198 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.benchmark;
+
+import app.musicplayer.model.IntMap;
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.SerializableLibrary;
+import app.musicplayer.model.serializable.SerializablePlaylist;
+import app.musicplayer.model.serializable.SerializableSong;
+import app.musicplayer.model.serializable.Serializer;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Measures how long it takes to reconstruct a library from its serialized form, i.e. the work done by
+ * Serializer.fromSerializable after the JSON has been parsed, on a synthetic library.
+ * Compares the current implementation with:
+ * the original one, which looked up each playlist song by scanning all songs (only run for small libraries, it is quadratic),
+ * and a hash join that still creates songs sequentially and adds them to playlists one by one.
+ * The time to load the same library from a JSON file is reported for reference.
+ *
+ * Usage: LibraryLoadBenchmark [numSongs] [numPlaylists] [numRounds]
+ */
+public final class LibraryLoadBenchmark {
+
+    private static final int SONGS_PER_PLAYLIST = 100;
+
+    /**
+     * Larger libraries take minutes with the original implementation.
+     */
+    private static final int MAX_SONGS_FOR_LINEAR_SCAN = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int numSongs = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int numPlaylists = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int numRounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        var library = createLibrary(numSongs, numPlaylists);
+
+        var jsonFile = Files.createTempFile("library-load-benchmark", ".json");
+
+        try {
+            Serializer.writeToFile(Serializer.fromSerializable(library), jsonFile);
+
+            System.out.printf("Songs: %d, playlists: %d, rounds: %d, cores: %d%n",
+                    numSongs, numPlaylists, numRounds, Runtime.getRuntime().availableProcessors());
+
+            // the first round warms up the JIT
+            for (int round = 0; round <= numRounds; round++) {
+                long linearScanNanos = numSongs <= MAX_SONGS_FOR_LINEAR_SCAN
+                        ? measure(library, LibraryLoadBenchmark::fromSerializableLinearScan)
+                        : -1;
+
+                long hashJoinNanos = measure(library, LibraryLoadBenchmark::fromSerializableHashJoin);
+                long currentNanos = measure(library, Serializer::fromSerializable);
+
+                long jsonStart = System.nanoTime();
+                Serializer.fromSerializable(Serializer.readLibraryFromFile(jsonFile));
+                long jsonNanos = System.nanoTime() - jsonStart;
+
+                if (round == 0)
+                    continue;
+
+                System.out.printf("Round %d%n", round);
+
+                if (linearScanNanos >= 0) {
+                    System.out.printf("  linear scan: %.1f ms%n", linearScanNanos / 1_000_000.0);
+                }
+
+                System.out.printf("  hash join, sequential: %.1f ms%n", hashJoinNanos / 1_000_000.0);
+                System.out.printf("  current: %.1f ms (%.1fx)%n", currentNanos / 1_000_000.0, (double) hashJoinNanos / currentNanos);
+                System.out.printf("  from JSON file, current: %.1f ms%n", jsonNanos / 1_000_000.0);
+            }
+        } finally {
+            Files.deleteIfExists(jsonFile);
+        }
+    }
+
+    private static long measure(SerializableLibrary library, Function<SerializableLibrary, Library> loader) {
+        long start = System.nanoTime();
+
+        var result = loader.apply(library);
+
+        long nanos = System.nanoTime() - start;
+
+        if (result.getSongs().size() != library.songs().size())
+            throw new IllegalStateException("Loaded " + result.getSongs().size() + " songs, expected " + library.songs().size());
+
+        return nanos;
+    }
+
+    private static Library fromSerializableLinearScan(SerializableLibrary library) {
+        List<Song> songs = library.songs()
+                .stream()
+                .map(Serializer::fromSerializable)
+                .toList();
+
+        var playlists = library.playlists()
+                .stream()
+                .map(p -> {
+                    var playlist = Serializer.fromSerializable(p);
+
+                    for (int id : p.songIDs()) {
+                        songs.stream()
+                                .filter(song -> song.getId() == id)
+                                .findFirst()
+                                .filter(song -> !playlist.getSongs().contains(song))
+                                .ifPresent(song -> playlist.getSongs().add(song));
+                    }
+
+                    return playlist;
+                })
+                .toList();
+
+        return new Library(playlists, library.nextSongId());
+    }
+
+    private static Library fromSerializableHashJoin(SerializableLibrary library) {
+        var songsById = new IntMap<Song>(library.songs().size());
+
+        library.songs().forEach(s -> {
+            if (!songsById.containsKey(s.id())) {
+                songsById.put(s.id(), Serializer.fromSerializable(s));
+            }
+        });
+
+        var playlists = library.playlists()
+                .stream()
+                .map(p -> {
+                    var playlist = Serializer.fromSerializable(p);
+
+                    p.songIDs().forEach(id -> {
+                        var song = songsById.get(id);
+
+                        if (song != null) {
+                            playlist.addSong(song);
+                        }
+                    });
+
+                    return playlist;
+                })
+                .toList();
+
+        return new Library(playlists, library.nextSongId());
+    }
+
+    private static SerializableLibrary createLibrary(int numSongs, int numPlaylists) {
+        var random = new Random(42);
+        var now = LocalDateTime.now();
+
+        List<SerializableSong> songs = new ArrayList<>(numSongs);
+        List<Integer> allIds = new ArrayList<>(numSongs);
+
+        for (int i = 0; i < numSongs; i++) {
+            var title = "Track " + i;
+
+            songs.add(new SerializableSong(
+                    i,
+                    title,
+                    120 + random.nextInt(300),
+                    random.nextInt(50),
+                    now.minusSeconds(random.nextInt(365 * 24 * 3600)),
+                    Paths.get("/music", "Artist " + i / 60, "Album " + i / 12, title + ".mp3").toString(),
+                    random.nextLong()
+            ));
+
+            allIds.add(i);
+        }
+
+        List<SerializablePlaylist> playlists = new ArrayList<>(numPlaylists + 1);
+        playlists.add(new SerializablePlaylist(0, Playlist.PlaylistType.ALL_SONGS, "All songs", allIds));
+
+        for (int i = 0; i < numPlaylists; i++) {
+            List<Integer> ids = new ArrayList<>(SONGS_PER_PLAYLIST);
+
+            for (int j = 0; j < SONGS_PER_PLAYLIST && numSongs > 0; j++) {
+                ids.add(random.nextInt(numSongs));
+            }
+
+            playlists.add(new SerializablePlaylist(i + 1, Playlist.PlaylistType.USER_CREATED, "Playlist " + i, ids));
+        }
+
+        return new SerializableLibrary(songs, playlists, numSongs, 0L);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchPublisherTest {
+
+    private static final int NUM_PRODUCERS = 4;
+    private static final int NUM_ITEMS_PER_PRODUCER = 2000;
+    private static final int NUM_ROUNDS = 100;
+
+    /**
+     * Single-threaded, like Platform::runLater.
+     */
+    private ExecutorService consumerThread;
+
+    @BeforeEach
+    void setUp() {
+        consumerThread = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        consumerThread.shutdownNow();
+    }
+
+    @Test
+    void everyItemOfferedBeforeCloseIsPublishedExactlyOnce() throws Exception {
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            int numItems = NUM_PRODUCERS * NUM_ITEMS_PER_PRODUCER;
+
+            var received = new BitSet(numItems);
+            var numReceived = new AtomicInteger();
+            var numDuplicates = new AtomicInteger();
+
+            // small batches and a short interval, so that flushes race with offers and close()
+            var publisher = new BatchPublisher<Integer>(7, 1, consumerThread, batch -> {
+                for (int item : batch) {
+                    if (received.get(item)) {
+                        numDuplicates.incrementAndGet();
+                    }
+
+                    received.set(item);
+                }
+
+                numReceived.addAndGet(batch.size());
+            });
+
+            var start = new CountDownLatch(1);
+            List<Thread> producers = new ArrayList<>();
+
+            for (int p = 0; p < NUM_PRODUCERS; p++) {
+                int first = p * NUM_ITEMS_PER_PRODUCER;
+
+                var producer = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < NUM_ITEMS_PER_PRODUCER; i++) {
+                        publisher.offer(first + i);
+                    }
+                });
+
+                producers.add(producer);
+                producer.start();
+            }
+
+            start.countDown();
+
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            publisher.close();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+            while (numReceived.get() < numItems && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+
+            // let any extra (wrong) batches arrive
+            consumerThread.submit(() -> { }).get();
+
+            assertEquals(numItems, numReceived.get(), "round " + round);
+            assertEquals(numItems, received.cardinality(), "round " + round);
+            assertEquals(0, numDuplicates.get(), "round " + round);
+        }
+    }
+
+    /**
+     * With a batch size of 1 every offer schedules a flush, so the last offer often lands
+     * while a flush is draining the queue, right before close().
+     */
+    @Test
+    void lastItemOfferedDuringFlushIsPublished() throws Exception {
+        for (int round = 0; round < 5000; round++) {
+            var numReceived = new AtomicInteger();
+
+            var publisher = new BatchPublisher<Integer>(1, 60_000, consumerThread, batch -> numReceived.addAndGet(batch.size()));
+
+            for (int i = 0; i < 20; i++) {
+                publisher.offer(i);
+            }
+
+            publisher.close();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+            while (numReceived.get() < 20 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+
+            assertEquals(20, numReceived.get(), "round " + round);
+        }
+    }
+
+    @Test
+    void closeCallbackRunsAfterEveryItemIsPublished() throws Exception {
+        for (int round = 0; round < 5000; round++) {
+            var numReceived = new AtomicInteger();
+            var numReceivedBeforeCallback = new CompletableFuture<Integer>();
+
+            var publisher = new BatchPublisher<Integer>(1, 60_000, consumerThread, batch -> numReceived.addAndGet(batch.size()));
+
+            for (int i = 0; i < 20; i++) {
+                publisher.offer(i);
+            }
+
+            publisher.close(() -> numReceivedBeforeCallback.complete(numReceived.get()));
+
+            assertEquals(20, numReceivedBeforeCallback.get(5, TimeUnit.SECONDS), "round " + round);
+        }
+    }
+
+    @Test
+    void itemsBelowBatchSizeArePublishedOnClose() throws Exception {
+        List<Integer> received = new ArrayList<>();
+
+        var publisher = new BatchPublisher<Integer>(1000, 60_000, consumerThread, received::addAll);
+        publisher.offer(1);
+        publisher.offer(2);
+        publisher.close();
+
+        consumerThread.submit(() -> { }).get();
+
+        assertEquals(List.of(1, 2), received);
+    }
+}
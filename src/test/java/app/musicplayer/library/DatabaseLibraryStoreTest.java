@@ -0,0 +1,98 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Song;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseLibraryStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void libraryPlaylistKeepsItsOrder() throws Exception {
+        var file = dir.resolve("library" + DatabaseLibraryStore.FILE_SUFFIX);
+
+        var library = new Library();
+        library.addSong(song(2, 0));
+        library.addSong(song(0, 0));
+        library.addSong(song(1, 0));
+
+        try (var store = DatabaseLibraryStore.open(file)) {
+            store.save(library);
+        }
+
+        try (var store = DatabaseLibraryStore.open(file)) {
+            var ids = store.load().getSongs().stream().map(Song::getId).toList();
+
+            assertEquals(List.of(2, 0, 1), ids);
+        }
+    }
+
+    @Test
+    void onlyChangedSongsNeedToBeWrittenAgain() throws Exception {
+        var file = dir.resolve("library" + DatabaseLibraryStore.FILE_SUFFIX);
+
+        var library = new Library();
+        var song = song(0, 0);
+        library.addSong(song);
+        library.addSong(song(1, 0));
+
+        try (var store = DatabaseLibraryStore.open(file)) {
+            store.save(library);
+
+            song.setPlayCount(3);
+            library.addSong(song(2, 0));
+
+            store.save(library);
+        }
+
+        try (var store = DatabaseLibraryStore.open(file)) {
+            var loaded = store.load();
+
+            assertEquals(List.of(0, 1, 2), loaded.getSongs().stream().map(Song::getId).toList());
+            assertEquals(3, loaded.findSongById(0).orElseThrow().getPlayCount());
+        }
+    }
+
+    @Test
+    void mostPlayedSongsAreQueriedInBackground() throws Exception {
+        var file = dir.resolve("library" + DatabaseLibraryStore.FILE_SUFFIX);
+
+        var library = new Library();
+        var song = song(0, 0);
+        library.addSong(song);
+        library.addSong(song(1, 2));
+        library.addSong(song(2, 0));
+
+        try (var store = DatabaseLibraryStore.open(file)) {
+            store.save(library);
+
+            song.setPlayCount(5);
+            store.recordPlay(song);
+
+            var ids = store.findMostPlayedSongIds(10).get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of(0, 1), ids);
+        }
+    }
+
+    private Song song(int id, int playCount) {
+        return new Song(id, "Song " + id, 60, playCount, LocalDateTime.now(), dir.resolve("song" + id + ".mp3"));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Playlist;
+import app.musicplayer.model.Song;
+import app.musicplayer.model.serializable.Serializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonLibraryStoreTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The journal is replayed once all songs were loaded, after the user could already play songs and edit playlists.
+     */
+    @Test
+    void changesRecordedWhileLoadingAreNotOverwrittenByJournal() throws Exception {
+        var libraryFile = dir.resolve("library.json");
+        var journalFile = dir.resolve("library.journal");
+
+        var library = new Library();
+        var song = new Song(0, "Song", 60, 1, LocalDateTime.now().minusDays(1), dir.resolve("song.mp3"));
+        library.addSong(song);
+
+        Serializer.writeToFile(library, libraryFile);
+
+        int journalPlaylistId;
+
+        try (var journal = LibraryJournal.open(journalFile, library)) {
+            song.setPlayCount(3);
+            journal.recordPlay(song);
+
+            var playlist = library.addPlaylist("From journal");
+            journal.recordPlaylistCreated(playlist);
+            journal.recordSongAdded(playlist, song);
+
+            journalPlaylistId = playlist.getId();
+        }
+
+        var executor = Executors.newSingleThreadExecutor();
+        var loaded = new CompletableFuture<Library>();
+        var playDate = LocalDateTime.now();
+
+        var store = new JsonLibraryStore(libraryFile, journalFile, false, 1000);
+
+        try {
+            store.load(new LibraryLoader.Listener() {
+                @Override
+                public void onFirstPage(Library firstPage) {
+                    var loadedSong = firstPage.findSongById(0).orElseThrow();
+                    loadedSong.setPlayCount(loadedSong.getPlayCount() + 1);
+                    loadedSong.setPlayDate(playDate);
+                    store.recordPlay(loadedSong);
+
+                    // takes the id of the playlist created by the journal
+                    var playlist = firstPage.addPlaylist("While loading");
+                    store.recordPlaylistCreated(playlist);
+                }
+
+                @Override
+                public void onLoaded(Library library) {
+                    loaded.complete(library);
+                }
+            }, executor);
+
+            var result = loaded.get(5, TimeUnit.SECONDS);
+
+            assertChangesKept(result, journalPlaylistId, playDate);
+
+            executor.submit(() -> {
+                store.close();
+                return null;
+            }).get();
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var reloadedStore = new JsonLibraryStore(libraryFile, journalFile, false, 1000);
+        assertChangesKept(reloadedStore.load(), journalPlaylistId, playDate);
+        reloadedStore.close();
+    }
+
+    private static void assertChangesKept(Library library, int journalPlaylistId, LocalDateTime playDate) {
+        var song = library.findSongById(0).orElseThrow();
+
+        assertEquals(4, song.getPlayCount());
+        assertEquals(playDate, song.getPlayDate());
+
+        var fromJournal = library.findPlaylistByTitle("From journal").orElseThrow();
+        var whileLoading = library.findPlaylistByTitle("While loading").orElseThrow();
+
+        assertEquals(journalPlaylistId, fromJournal.getId());
+        assertNotEquals(fromJournal.getId(), whileLoading.getId());
+        assertTrue(fromJournal.containsSong(song));
+        assertEquals(0, whileLoading.getSongs().size());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.library;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Song;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LibraryUpdaterTest {
+
+    private static final long CONTENT_HASH = 42L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void songWithSameContentAsMissingFileIsMoved() {
+        var library = new Library();
+        var song = song(0, dir.resolve("old.mp3"));
+        library.addSong(song);
+
+        var loaded = song(1, dir.resolve("new.mp3"));
+        var missingFile = LibraryUpdater.findMissingFile(library, loaded);
+
+        assertEquals(Optional.of(dir.resolve("old.mp3")), missingFile);
+
+        new LibraryUpdater(library).applyLoaded(List.of(loaded), Set.of(missingFile.get()));
+
+        assertEquals(List.of(song), library.getSongs());
+        assertEquals(dir.resolve("new.mp3"), song.getFile());
+        assertEquals(Optional.of(dir.resolve("new.mp3")), library.findFileByContentHash(CONTENT_HASH));
+    }
+
+    @Test
+    void copyOfExistingFileIsDropped() throws Exception {
+        var library = new Library();
+        var song = song(0, Files.createFile(dir.resolve("old.mp3")));
+        library.addSong(song);
+
+        var loaded = song(1, dir.resolve("copy.mp3"));
+
+        assertEquals(Optional.empty(), LibraryUpdater.findMissingFile(library, loaded));
+
+        new LibraryUpdater(library).applyLoaded(List.of(loaded), Set.of());
+
+        assertEquals(List.of(song), library.getSongs());
+        assertEquals(dir.resolve("old.mp3"), song.getFile());
+    }
+
+    private static Song song(int id, Path file) {
+        var song = new Song(id, "Song " + id, 60, 0, LocalDateTime.now(), file);
+        song.setContentHash(CONTENT_HASH);
+        return song;
+    }
+}
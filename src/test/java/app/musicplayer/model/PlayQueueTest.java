@@ -0,0 +1,171 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model;
+
+import app.musicplayer.model.PlayQueue.LoopMode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static app.musicplayer.model.Playlist.PlaylistType.USER_CREATED;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayQueueTest {
+
+    private static final int NUM_SONGS = 5;
+
+    private Playlist playlist;
+    private List<Song> songs;
+
+    @BeforeEach
+    void setUp() {
+        songs = new ArrayList<>();
+
+        for (int id = 0; id < NUM_SONGS; id++) {
+            songs.add(new Song(id, "Song " + id, 60, 0, LocalDateTime.now(), Paths.get("song" + id + ".mp3")));
+        }
+
+        playlist = new Playlist(0, USER_CREATED, "Playlist");
+        playlist.addSongs(songs);
+    }
+
+    @Test
+    void nextAndPreviousMoveTheCursor() {
+        var queue = new PlayQueue(playlist, songs.get(1));
+
+        assertEquals(songs.get(2), queue.next());
+        assertEquals(songs.get(3), queue.next());
+        assertEquals(songs.get(2), queue.previous());
+        assertEquals(songs.get(1), queue.previous());
+        assertEquals(songs.get(0), queue.previous());
+
+        assertNull(queue.previous());
+        assertEquals(songs.get(0), queue.getCurrentSong());
+    }
+
+    @Test
+    void endOfPlaylistStopsUnlessLoopingAll() {
+        var queue = new PlayQueue(playlist, songs.get(NUM_SONGS - 1));
+
+        assertNull(queue.peekNext());
+        assertNull(queue.next());
+        assertNull(queue.onEndOfMedia());
+        assertEquals(songs.get(NUM_SONGS - 1), queue.getCurrentSong());
+
+        queue.setLoopMode(LoopMode.ALL);
+
+        assertEquals(songs.get(0), queue.peekNext());
+        assertEquals(songs.get(0), queue.onEndOfMedia());
+    }
+
+    @Test
+    void loopingOneRepeatsOnEndOfMediaButNextMovesOn() {
+        var queue = new PlayQueue(playlist, songs.get(1));
+        queue.setLoopMode(LoopMode.ONE);
+
+        assertEquals(songs.get(1), queue.peekNext());
+        assertEquals(songs.get(1), queue.onEndOfMedia());
+        assertEquals(songs.get(1), queue.onEndOfMedia());
+
+        assertEquals(songs.get(2), queue.next());
+        assertEquals(songs.get(2), queue.onEndOfMedia());
+    }
+
+    @Test
+    void queuedSongsArePlayedBeforeTheNextSong() {
+        var queue = new PlayQueue(playlist, songs.get(0));
+
+        queue.enqueue(List.of(songs.get(4)));
+        queue.playNext(List.of(songs.get(2), songs.get(3)));
+
+        assertEquals(songs.get(2), queue.peekNext());
+        assertEquals(songs.get(2), queue.next());
+        assertEquals(songs.get(3), queue.next());
+        assertEquals(songs.get(4), queue.next());
+        assertEquals(songs.get(1), queue.next());
+    }
+
+    @Test
+    void previousWhilePlayingQueuedSongReturnsToTheSongItWasPlayedAfter() {
+        var queue = new PlayQueue(playlist, songs.get(2));
+
+        queue.playNext(List.of(songs.get(4)));
+
+        assertEquals(songs.get(4), queue.next());
+        assertEquals(songs.get(2), queue.previous());
+        assertEquals(songs.get(1), queue.previous());
+    }
+
+    @Test
+    void shufflePlaysEverySongOnceStartingWithTheCurrentOne() {
+        var queue = new PlayQueue(playlist, songs.get(2));
+        queue.setShuffled(true);
+
+        var played = new HashSet<Song>();
+        played.add(queue.getCurrentSong());
+
+        Song song;
+
+        while ((song = queue.next()) != null) {
+            assertTrue(played.add(song), "played twice: " + song);
+        }
+
+        assertEquals(new HashSet<>(songs), played);
+        assertEquals(2, playlist.getSongs().indexOf(songs.get(2)), "the playlist is not reordered");
+    }
+
+    @Test
+    void unshuffleContinuesInPlaylistOrderFromTheCurrentSong() {
+        var queue = new PlayQueue(playlist, songs.get(0));
+        queue.setShuffled(true);
+
+        var current = queue.next();
+        queue.setShuffled(false);
+
+        int index = songs.indexOf(current);
+
+        assertEquals(index + 1 < NUM_SONGS ? songs.get(index + 1) : null, queue.next());
+    }
+
+    @Test
+    void previousInShuffleRetracesThePlayOrder() {
+        var queue = new PlayQueue(playlist, songs.get(0));
+        queue.setShuffled(true);
+
+        var first = queue.getCurrentSong();
+        var second = queue.next();
+        queue.next();
+
+        assertEquals(second, queue.previous());
+        assertEquals(first, queue.previous());
+        assertNull(queue.previous());
+    }
+
+    @Test
+    void playlistEditsAreFollowed() {
+        var queue = new PlayQueue(playlist, songs.get(0));
+
+        playlist.removeSong(1);
+
+        var added = new Song(NUM_SONGS, "Added", 60, 0, LocalDateTime.now(), Paths.get("added.mp3"));
+        playlist.addSong(added);
+
+        assertEquals(songs.get(2), queue.next());
+        assertEquals(songs.get(3), queue.next());
+        assertEquals(songs.get(4), queue.next());
+        assertEquals(added, queue.next());
+        assertNull(queue.next());
+
+        queue.dispose();
+    }
+}
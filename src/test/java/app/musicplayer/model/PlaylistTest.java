@@ -0,0 +1,48 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static app.musicplayer.model.Playlist.PlaylistType.USER_CREATED;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlaylistTest {
+
+    @Test
+    void songsAddedToPendingPlaylistWhileLoadingAreKept() {
+        var song1 = song(1);
+        var song2 = song(2);
+        var song3 = song(3);
+
+        var playlist = new Playlist(0, USER_CREATED, "Pending");
+        playlist.setPendingSongIds(new int[] { 1, 2 });
+        playlist.setSongResolver(null);
+
+        assertFalse(playlist.addSong(song2));
+        assertTrue(playlist.addSong(song3));
+        assertArrayEquals(new int[] { 1, 2, 3 }, playlist.getSongIds());
+        assertEquals(3, playlist.numSongsProperty().get());
+
+        playlist.removeSong(1);
+        assertArrayEquals(new int[] { 2, 3 }, playlist.getSongIds());
+
+        var songs = List.of(song1, song2, song3);
+        playlist.setSongResolver(id -> songs.get(id - 1));
+
+        assertEquals(List.of(song2, song3), playlist.getSongs());
+    }
+
+    private static Song song(int id) {
+        return new Song(id, "Song " + id, 60, 0, LocalDateTime.now(), Paths.get("song" + id + ".mp3"));
+    }
+}
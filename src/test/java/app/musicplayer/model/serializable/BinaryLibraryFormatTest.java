@@ -0,0 +1,114 @@
+/*
+ * JavaFX Music Player. The MIT License (MIT).
+ * Copyright (c) Almas Baim.
+ * Copyright (c) Gerardo Prada, Michael Martin.
+ * See LICENSE for details.
+ */
+
+package app.musicplayer.model.serializable;
+
+import app.musicplayer.model.Library;
+import app.musicplayer.model.Song;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryLibraryFormatTest {
+
+    /**
+     * Header of a version 2 file, followed by 2 long and 7 int columns.
+     */
+    private static final int STRING_TABLE_POSITION = 6 * Integer.BYTES + Long.BYTES + 2 * Long.BYTES + 7 * Integer.BYTES;
+
+    private static final int NUM_SONGS_POSITION = 2 * Integer.BYTES;
+
+    private static final int NUM_STRINGS_POSITION = 5 * Integer.BYTES;
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private int numStrings;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        var library = new Library();
+        library.addSong(new Song(0, "Song", 60, 1, LocalDateTime.now(), dir.resolve("song.mp3")));
+
+        file = dir.resolve("library.bin");
+        BinaryLibraryFormat.write(library, file);
+
+        numStrings = readInt(NUM_STRINGS_POSITION);
+    }
+
+    @Test
+    void libraryIsReadBack() throws Exception {
+        var song = BinaryLibraryFormat.read(file).findSongById(0).orElseThrow();
+
+        assertEquals("Song", song.getTitle());
+        assertEquals(dir.resolve("song.mp3"), song.getFile());
+    }
+
+    @Test
+    void songCountLargerThanFileIsReported() throws Exception {
+        writeInt(NUM_SONGS_POSITION, Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> BinaryLibraryFormat.read(file));
+    }
+
+    @Test
+    void stringCountLargerThanFileIsReported() throws Exception {
+        writeInt(NUM_STRINGS_POSITION, Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> BinaryLibraryFormat.read(file));
+    }
+
+    @Test
+    void negativeStringTableSizeIsReported() throws Exception {
+        writeInt(offsetPosition(numStrings), -1);
+
+        assertThrows(IOException.class, () -> BinaryLibraryFormat.read(file));
+    }
+
+    @Test
+    void stringTableLargerThanFileIsReported() throws Exception {
+        writeInt(offsetPosition(numStrings), Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> BinaryLibraryFormat.read(file));
+    }
+
+    @Test
+    void decreasingStringOffsetIsReported() throws Exception {
+        writeInt(offsetPosition(1), readInt(offsetPosition(2)) + 1);
+
+        assertThrows(IOException.class, () -> BinaryLibraryFormat.read(file));
+    }
+
+    private static int offsetPosition(int index) {
+        return STRING_TABLE_POSITION + index * Integer.BYTES;
+    }
+
+    private int readInt(int position) throws IOException {
+        try (var channel = FileChannel.open(file, READ)) {
+            var buffer = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(buffer, position);
+            return buffer.getInt(0);
+        }
+    }
+
+    private void writeInt(int position, int value) throws IOException {
+        try (var channel = FileChannel.open(file, WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+        }
+    }
+}